@@ -0,0 +1,127 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmark of the {@link OfflineExtractor}. It is kept out of the packaged
+ * application and can be run from the test classpath.
+ *
+ * @author Oliver
+ *
+ */
+public final class OfflineExtractorBenchmark {
+	/**
+	 * No instances needed
+	 */
+	private OfflineExtractorBenchmark() {
+	}
+
+	/**
+	 * Compares the rows per second of the previous implementation, which
+	 * compiled the patterns and split the description for every EPG line, with
+	 * the {@link OfflineExtractor}. Afterwards a single scan using several
+	 * rules is compared with one extractor per rule
+	 *
+	 * @param args
+	 *            optional pattern, the default pattern is used otherwise
+	 */
+	public static void main(String[] args) {
+		String epgPattern = args.length > 0 ? args[0] : "Dies ist die \\d{1,}\\. Episode der \\d{1,}\\. Staffel.*";
+		List<String> descriptions = new ArrayList<>();
+		for (int i = 0; i < 100000; i++) {
+			StringBuilder description = new StringBuilder("Folge: Episode ").append(i).append(". ");
+			description.append("Eine lange Beschreibung der Handlung mit vielen Worten und Saetzen. ");
+			description.append("Die Figuren erleben in dieser Folge ein neues Abenteuer. ");
+			if (i % 10 == 0) {
+				description.append("Dies ist die ").append(i % 24 + 1).append(". Episode der ").append(i % 7 + 1).append(". Staffel.");
+			}
+			descriptions.add(description.toString());
+		}
+		OfflineExtractor extractor = new OfflineExtractor(epgPattern);
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			int legacyFound = 0;
+			for (String description : descriptions) {
+				if (extractLegacy(epgPattern, description) != null) {
+					legacyFound++;
+				}
+			}
+			long legacyTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int found = 0;
+			for (String description : descriptions) {
+				if (extractor.extract(description) != null) {
+					found++;
+				}
+			}
+			long extractorTime = System.nanoTime() - start;
+			System.out.println(String.format(Locale.ROOT, "Round %d: legacy %.0f rows/s (%d found), extractor %.0f rows/s (%d found)", round,
+					descriptions.size() * 1e9 / legacyTime, legacyFound, descriptions.size() * 1e9 / extractorTime, found));
+		}
+
+		List<String> epgPatterns = new ArrayList<>();
+		epgPatterns.add(epgPattern);
+		epgPatterns.add("Staffel (?<season>\\d{1,3}), Folge (?<episode>\\d{1,4})");
+		epgPatterns.add("\\bS(?<season>\\d{1,2}) ?E(?<episode>\\d{1,3})\\b");
+		epgPatterns.add("\\((?<season>\\d{1,2})/(?<episode>\\d{1,3})\\)");
+		OfflineExtractor combined = new OfflineExtractor(epgPatterns);
+		List<OfflineExtractor> separate = new ArrayList<>();
+		for (String rule : epgPatterns) {
+			separate.add(new OfflineExtractor(rule));
+		}
+		for (int round = 0; round < 5; round++) {
+			long start = System.nanoTime();
+			int separateFound = 0;
+			for (String description : descriptions) {
+				for (OfflineExtractor ruleExtractor : separate) {
+					if (ruleExtractor.extract(description, "Episode", "Serie") != null) {
+						separateFound++;
+						break;
+					}
+				}
+			}
+			long separateTime = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int combinedFound = 0;
+			for (String description : descriptions) {
+				if (combined.extract(description, "Episode", "Serie") != null) {
+					combinedFound++;
+				}
+			}
+			long combinedTime = System.nanoTime() - start;
+			System.out.println(String.format(Locale.ROOT, "Round %d: %d separate rules %.0f rows/s (%d found), combined %.0f rows/s (%d found)",
+					round, separate.size(), descriptions.size() * 1e9 / separateTime, separateFound, descriptions.size() * 1e9 / combinedTime,
+					combinedFound));
+		}
+	}
+
+	/**
+	 * Previous implementation of the offline search used by {@link #main}
+	 *
+	 * @param epgPattern
+	 *            description pattern
+	 * @param epgText
+	 *            EPG description text
+	 * @return season and episode number or null
+	 */
+	private static String[] extractLegacy(String epgPattern, String epgText) {
+		Pattern numberPattern = Pattern.compile("\\d+");
+		Matcher matcher = Pattern.compile(epgPattern).matcher(epgText);
+		if (matcher.find()) {
+			String[] episodeSeriesArray = epgText.substring(matcher.start()).split("\\.");
+			Matcher episodeMatcher = numberPattern.matcher(episodeSeriesArray[0]);
+			Matcher seriesMatcher = numberPattern.matcher(episodeSeriesArray[1]);
+			if (episodeMatcher.find() && seriesMatcher.find()) {
+				return new String[] { episodeSeriesArray[1].substring(seriesMatcher.start()),
+						episodeSeriesArray[0].substring(episodeMatcher.start()) };
+			}
+		}
+		return null;
+	}
+}
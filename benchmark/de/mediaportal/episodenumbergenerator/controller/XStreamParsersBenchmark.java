@@ -0,0 +1,91 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import com.thoughtworks.xstream.XStream;
+
+import de.mediaportal.episodenumbergenerator.model.series.Updates;
+import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeInformation;
+import de.mediaportal.episodenumbergenerator.model.series.data.SeriesData;
+import de.mediaportal.episodenumbergenerator.model.series.data.SeriesInformation;
+import de.mediaportal.episodenumbergenerator.model.series.list.SeriesList;
+import de.mediaportal.episodenumbergenerator.model.series.list.SeriesListEntry;
+
+/**
+ * Micro benchmark of the shared {@link XStreamParsers}. It is kept out of the
+ * packaged application and can be run from the test classpath.
+ *
+ * @author Oliver
+ *
+ */
+public final class XStreamParsersBenchmark {
+	/**
+	 * No instances needed
+	 */
+	private XStreamParsersBenchmark() {
+	}
+
+	/**
+	 * Compares parsing series data with a parser configured per series (as
+	 * every {@link TheTvDbController} did before) against parsing with the
+	 * shared parser
+	 *
+	 * @param args
+	 *            optional amount of series to simulate
+	 */
+	public static void main(String[] args) {
+		int seriesCount = args != null && args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		StringBuilder xml = new StringBuilder("<Data><Series><id>1</id><SeriesName>Benchmark</SeriesName></Series>");
+		for (int i = 1; i <= 20; i++) {
+			xml.append("<Episode><id>").append(i).append("</id><SeasonNumber>1</SeasonNumber><EpisodeNumber>").append(i)
+					.append("</EpisodeNumber><EpisodeName>Episode ").append(i).append("</EpisodeName></Episode>");
+		}
+		xml.append("</Data>");
+		String seriesDataXml = xml.toString();
+
+		// Warm up both variants
+		runPerSeriesParsers(seriesDataXml, 200);
+		runSharedParser(seriesDataXml, 200);
+
+		long start = System.nanoTime();
+		runPerSeriesParsers(seriesDataXml, seriesCount);
+		long perSeriesNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		runSharedParser(seriesDataXml, seriesCount);
+		long sharedNanos = System.nanoTime() - start;
+
+		System.out.println("Parsed " + seriesCount + " series");
+		System.out.println("Parser per series: " + (perSeriesNanos / seriesCount / 1000) + " us per series");
+		System.out.println("Shared parser:     " + (sharedNanos / seriesCount / 1000) + " us per series");
+	}
+
+	/**
+	 * Configures the three parsers for every series and parses the series data
+	 *
+	 * @param seriesDataXml
+	 *            series data to be parsed
+	 * @param seriesCount
+	 *            amount of series
+	 */
+	private static void runPerSeriesParsers(String seriesDataXml, int seriesCount) {
+		for (int i = 0; i < seriesCount; i++) {
+			XStreamParsers.create(Updates.class);
+			XStreamParsers.create(SeriesList.class, SeriesListEntry.class);
+			XStream xstream = XStreamParsers.create(SeriesData.class, SeriesInformation.class, EpisodeInformation.class);
+			xstream.fromXML(seriesDataXml);
+		}
+	}
+
+	/**
+	 * Parses the series data with the shared parser for every series
+	 *
+	 * @param seriesDataXml
+	 *            series data to be parsed
+	 * @param seriesCount
+	 *            amount of series
+	 */
+	private static void runSharedParser(String seriesDataXml, int seriesCount) {
+		for (int i = 0; i < seriesCount; i++) {
+			XStreamParsers.SERIES_DATA.fromXML(seriesDataXml);
+		}
+	}
+}
@@ -14,12 +14,15 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.Vector;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JOptionPane;
 import javax.swing.JTextArea;
@@ -27,12 +30,19 @@ import javax.swing.JTextArea;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import de.mediaportal.episodenumbergenerator.controller.CacheManifest;
 import de.mediaportal.episodenumbergenerator.controller.DatabaseConnection;
+import de.mediaportal.episodenumbergenerator.controller.EpgScanPipeline;
+import de.mediaportal.episodenumbergenerator.controller.EpgUpdateWriter;
+import de.mediaportal.episodenumbergenerator.controller.NegativeSeriesCache;
+import de.mediaportal.episodenumbergenerator.controller.OfflineExtractor;
+import de.mediaportal.episodenumbergenerator.controller.ResolutionCache;
+import de.mediaportal.episodenumbergenerator.controller.ScanState;
+import de.mediaportal.episodenumbergenerator.controller.SeriesResolver;
 import de.mediaportal.episodenumbergenerator.controller.TheTvDbController;
 import de.mediaportal.episodenumbergenerator.model.Config;
+import de.mediaportal.episodenumbergenerator.model.SubstitutionEngine;
 import de.mediaportal.episodenumbergenerator.model.Substitutions;
-import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeInformation;
-import de.mediaportal.episodenumbergenerator.model.series.data.SeriesData;
 
 /**
  * MPEpisodeNumberGenerator scans MediaPortal's EPG for series beginning with a pattern
@@ -50,25 +60,20 @@ public class MPEpisodeNumberGenerator {
     */
    private static Logger logger = null;
 
-   /**
-    * Regular Expression for a number
-    */
-   private final static String REGEX_NUMBER = "\\d+";
-
    /**
     * Holds configuration set in settings.properties
     */
    private static Config config = null;
 
    /**
-    * Table of episode names in the epg with their substitution name to be used for search on thetvdb.com
+    * Substitutions of episode names in the epg by the names to be used for search on thetvdb.com
     */
-   private static Hashtable<String, String> episodeNameSubstitutions = null;
+   private static SubstitutionEngine episodeNameSubstitutions = null;
 
    /**
-    * Table of series names in the epg with their substitution name to be used for search on thetvdb.com
+    * Substitutions of series names in the epg by the names to be used for search on thetvdb.com
     */
-   private static Hashtable<String, String> seriesNameSubstitutions = null;
+   private static SubstitutionEngine seriesNameSubstitutions = null;
 
    /**
     * SystemTray object to show notifications
@@ -84,7 +89,9 @@ public class MPEpisodeNumberGenerator {
     * Application main flow
     * 
     * @param args
-    *           no arguments are used
+    *           <code>--createconfig</code> to recreate the config, <code>--restore &lt;file&gt;</code> to restore an
+    *           EPG backup instead of scanning or <code>--listnegativecache</code> and <code>--clearnegativecache</code>
+    *           to list or clear the series titles thetvdb had no series for
     */
    public static void main(String[] args) {
       // Initialize config
@@ -93,10 +100,20 @@ public class MPEpisodeNumberGenerator {
       File configFile = new File("config/settings.properties");
 
       // Check if user wants to (re)create config and rename current config if
-      // exists
+      // exists or restore a backup
+      File restoreFile = null;
+      boolean listNegativeCache = false;
+      boolean clearNegativeCache = false;
       if (args != null && args.length > 0) {
-         for (String arg : args) {
-            if (arg != null && arg.equalsIgnoreCase("--createconfig")) {
+         for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg != null && arg.equalsIgnoreCase("--restore") && i + 1 < args.length) {
+               restoreFile = new File(args[++i]);
+            } else if (arg != null && arg.equalsIgnoreCase("--listnegativecache")) {
+               listNegativeCache = true;
+            } else if (arg != null && arg.equalsIgnoreCase("--clearnegativecache")) {
+               clearNegativeCache = true;
+            } else if (arg != null && arg.equalsIgnoreCase("--createconfig")) {
                if (configDir.exists() && configFile.exists()) {
                   File bakFile = new File("config/settings.bak");
                   if (bakFile.exists()) {
@@ -174,6 +191,8 @@ public class MPEpisodeNumberGenerator {
       MPEpisodeNumberGenerator.logger.warn("****************************************");
       MPEpisodeNumberGenerator.logger.warn("*** MPEpisodeNumberGenerator started ***");
       MPEpisodeNumberGenerator.logger.warn("****************************************");
+      EpgUpdateWriter epgWriter = null;
+      ResolutionCache resolutionCache = null;
       try {
          // Create config instance
          MPEpisodeNumberGenerator.config = new Config();
@@ -181,195 +200,119 @@ public class MPEpisodeNumberGenerator {
          // Create substitutions instance
          MPEpisodeNumberGenerator.fetchSubstitutions();
 
+         // List or clear the negative series cache instead of scanning
+         if (listNegativeCache || clearNegativeCache) {
+            MPEpisodeNumberGenerator.maintainNegativeCache(listNegativeCache, clearNegativeCache);
+            MPEpisodeNumberGenerator.exitDelayed();
+            return;
+         }
+
          // Establish database connection to MediaPortal
          DatabaseConnection dbConnection = DatabaseConnection.getInstance();
 
-         // Dump database
-         try {
-            int returnCode = dbConnection.dumpDatabase();
-            if (returnCode == 0) {
-               MPEpisodeNumberGenerator.logger.info("MediaPortal database backup taken successfully");
-            } else {
-               MPEpisodeNumberGenerator.logger.error(
-                     "Could not take MediaPortal database backup (RC=" + returnCode + ")");
+         // Restore a backup instead of scanning the EPG
+         if (restoreFile != null) {
+            int restoredLines = dbConnection.restoreEpg(restoreFile);
+            MPEpisodeNumberGenerator.logger.info("Restored " + restoredLines + " EPG lines from " + restoreFile.getPath());
+            MPEpisodeNumberGenerator.trayIcon.displayMessage("Info",
+                  "MPEpisodeNumberGenerator restored " + restoredLines + " EPG lines.", MessageType.INFO);
+            MPEpisodeNumberGenerator.exitDelayed();
+            return;
+         }
+
+         // Load the resolved EPG lines of previous runs
+         if (MPEpisodeNumberGenerator.config.isResolutionCache()) {
+            resolutionCache =
+                  new ResolutionCache(new File(TheTvDbController.PATH_CACHE + ResolutionCache.FILENAME_RESOLUTION_CACHE));
+            if (!MPEpisodeNumberGenerator.config.isOffline()) {
+               resolutionCache.invalidate(TheTvDbController.getUpdatesSinceLastCache());
             }
-         } catch (InterruptedException e) {
-            MPEpisodeNumberGenerator.logger.error("Could not dump database (" + e.getMessage() + ")", e);
+         }
+
+         // Only scan new EPG lines and lines of series to be retried in incremental mode
+         ScanState scanState = null;
+         int highWaterMark = 0;
+         Set<String> retryTitles = null;
+         if (MPEpisodeNumberGenerator.config.isIncrementalScan()) {
+            scanState = new ScanState(new File(TheTvDbController.PATH_CACHE + ScanState.FILENAME_SCAN_STATE),
+                  MPEpisodeNumberGenerator.config.getFailedLinesTtlDays());
+            ResultSet maxProgramIdRs = dbConnection.getSelectMaxProgramIdStatement().executeQuery();
+            maxProgramIdRs.next();
+            int maxProgramId = maxProgramIdRs.getInt(1);
+            maxProgramIdRs.close();
+            if (maxProgramId < scanState.getHighWaterMark()) {
+               MPEpisodeNumberGenerator.logger.warn("Incremental-Scan: Highest program ID " + maxProgramId
+                     + " is below the high-water mark " + scanState.getHighWaterMark() + ". Scanning all EPG lines.");
+               scanState.resetHighWaterMark();
+            }
+            retryTitles = scanState.removeRetryableLines(
+                  MPEpisodeNumberGenerator.config.isOffline() ? null : TheTvDbController.getUpdatesSinceLastCache());
+            highWaterMark = scanState.getHighWaterMark();
          }
 
          // Scan EPG for series
          String epgSeriesIndicator = MPEpisodeNumberGenerator.config.getEpgSeriesIndicator();
 
+         // Back up the database in the background. The first EPG update waits for the backup and all updates are
+         // aborted if it fails
+         Future<Integer> backup = MPEpisodeNumberGenerator.startBackup(dbConnection, epgSeriesIndicator, highWaterMark,
+               retryTitles);
+
          // Get count of episodes to be scanned
-         PreparedStatement countStmt = dbConnection.getSelectEpgTableCountStatement(epgSeriesIndicator);
+         PreparedStatement countStmt =
+               dbConnection.getSelectEpgTableCountStatement(epgSeriesIndicator, highWaterMark, retryTitles);
          ResultSet countRs = countStmt.executeQuery();
          countRs.next();
          double epgEpisodesSize = countRs.getInt(1);
          countRs.close();
-         int lineCounter = 0;
 
-         // Begin Scan
-         MPEpisodeNumberGenerator.logger.info("Beginning scan of " + epgEpisodesSize + " epg lines in the database");
-         Date beginningDate = new Date();
-         long beginningDateLong = beginningDate.getTime();
-         SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
-         PreparedStatement stmt = dbConnection.getSelectEpgTableStatement(epgSeriesIndicator);
-         ResultSet rs = stmt.executeQuery();
-         String lastTitle = "";
-         TheTvDbController tvdb = null;
-         int epgCounter = 0;
-         int mappedCounter = 0;
-
-         // Iterate over episode database lines
-         while (rs.next()) {
-            boolean foundEpisode = false;
-            lineCounter++;
-
-            // Get the series and episode title
-            String title = rs.getString("title");
-            String episodeName = rs.getString("episodeName");
-
-            MPEpisodeNumberGenerator.logger.info("Beginning search for " + title + " - " + episodeName);
-
-            if (!MPEpisodeNumberGenerator.config.isOnlineOnlySeries(title)) {
-               // try to get the episode
-               // numbers from the epg description field
-               MPEpisodeNumberGenerator.logger.debug(
-                     "Offline-Search: Trying to parse epg description text to find the series and episode number");
-               String epgPattern = MPEpisodeNumberGenerator.config.getEpgPattern();
-               String epgText = rs.getString("description");
-
-               Pattern numberPattern = Pattern.compile(MPEpisodeNumberGenerator.REGEX_NUMBER);
-
-               Pattern pattern = Pattern.compile(epgPattern);
-               Matcher matcher = pattern.matcher(epgText);
-               if (matcher.find()) {
-
-                  int beginIndex = matcher.start();
-                  epgText = epgText.substring(beginIndex);
-                  String[] episodeSeriesArray = epgText.split("\\.");
-                  String episodeNumber = null;
-                  String seasonNumber = null;
-                  String episodeNumberTmp = episodeSeriesArray[0];
-                  String seriesNumberTmp = episodeSeriesArray[1];
-
-                  Matcher episodeMatcher = numberPattern.matcher(episodeNumberTmp);
-                  if (episodeMatcher.find()) {
-                     int beginEpisodeNumber = episodeMatcher.start();
-                     episodeNumber = episodeNumberTmp.substring(beginEpisodeNumber);
-                  }
-
-                  Matcher seriesMatcher = numberPattern.matcher(seriesNumberTmp);
-                  if (seriesMatcher.find()) {
-                     int beginSeriesNumber = seriesMatcher.start();
-                     seasonNumber = seriesNumberTmp.substring(beginSeriesNumber);
-                  }
-                  if (episodeNumber != null && seasonNumber != null) {
-                     MPEpisodeNumberGenerator.logger.info(
-                           "Offline-Search: Found series and episode number in description text: " + seasonNumber + "x"
-                                 + episodeNumber);
-                     PreparedStatement updateStmt = dbConnection.updateEpgEpisodeAndSeriesNumber(rs.getInt("idProgram"),
-                           seasonNumber, episodeNumber);
-                     updateStmt.executeUpdate();
-                     foundEpisode = true;
-                  } else {
-                     // not found message will be logged later
-                  }
-
-               } else {
-                  MPEpisodeNumberGenerator.logger.debug(
-                        "Offline-Search: Found no season and episode number for series '" + title + "' and episode '"
-                              + episodeName + "'");
-               }
-            } else {
-               MPEpisodeNumberGenerator.logger.warn(
-                     "Skipped Offline-Search for '" + title + "' because it is marked as online only in the config");
-            }
-            if (!foundEpisode && !MPEpisodeNumberGenerator.config.isOffline()) {
-               if (!MPEpisodeNumberGenerator.config.isOfflineOnlySeries(title)) {
-                  // Create TheTvDbController object per series title and
-                  // try to find season and episode number
-                  String newTitle = rs.getString("title");
-
-                  // Change query if substitutions exists
-                  if (MPEpisodeNumberGenerator.episodeNameSubstitutions != null) {
-                     String substitute = MPEpisodeNumberGenerator.episodeNameSubstitutions.get(episodeName);
-                     if (substitute != null) {
-                        MPEpisodeNumberGenerator.logger.debug("Online-Search: Substitution '" + substitute
-                              + "' found for episode name '" + episodeName + "'");
-                        episodeName = substitute;
-                     } else {
-                        // Episode name of epg is used
-                     }
-                  }
-
-                  if (newTitle.equalsIgnoreCase(lastTitle)) {
-                     epgCounter++;
-                  } else {
-                     if (!"".equals(lastTitle)) {
-                        MPEpisodeNumberGenerator.logger.info("Online-Search: Completed series with title '" + lastTitle
-                              + "' (mapped " + mappedCounter + " of " + epgCounter + " episodes in epg).");
-                        epgCounter = 0;
-                        mappedCounter = 0;
-                     }
-                     MPEpisodeNumberGenerator.logger.info("Online-Search: Processing new series " + newTitle);
-                     tvdb = new TheTvDbController(newTitle, rs.getString("originalAirDate").substring(0, 4));
-                  }
-                  lastTitle = newTitle;
-
-                  SeriesData seriesData = tvdb.getSeriesData();
-                  if (seriesData != null) {
-                     Vector<EpisodeInformation> episodeList = seriesData.getEpisodeList();
-                     if (episodeList != null && episodeList.size() > 0) {
-                        for (EpisodeInformation episodeInfo : episodeList) {
-                           if (episodeInfo != null) {
-                              if (episodeInfo.getEpisodeName().equalsIgnoreCase(episodeName)) {
-                                 mappedCounter++;
-                                 MPEpisodeNumberGenerator.logger.info(
-                                       "Online-Search: Mapped episode number successfully: "
-                                             + episodeInfo.getSeasonNumber() + "x" + episodeInfo.getEpisodeNumber()
-                                             + " - " + episodeInfo.getEpisodeName() + " - ProgramId='"
-                                             + rs.getString("idProgram") + "'");
-                                 PreparedStatement updateStmt =
-                                       dbConnection.updateEpgEpisodeAndSeriesNumber(rs.getInt("idProgram"),
-                                             episodeInfo.getSeasonNumber(), episodeInfo.getEpisodeNumber());
-                                 updateStmt.executeUpdate();
-                                 foundEpisode = true;
-                                 break;
-                              }
-                           }
-                        }
-                     }
-                  } else {
-                     MPEpisodeNumberGenerator.logger.warn("Online-Search: Could not fetch series data for: " + tvdb);
-                  }
-               } else {
-                  MPEpisodeNumberGenerator.logger.warn(
-                        "Skipped Online-Search for '" + title + "' because it is marked as offline only in the config");
+         // Resolve all series using thetvdb before scanning, if parallel resolution is configured
+         SeriesResolver seriesResolver = null;
+         int theTvDbParallelism = MPEpisodeNumberGenerator.config.getTheTvDbParallelism();
+         if (!MPEpisodeNumberGenerator.config.isOffline() && theTvDbParallelism > 1) {
+            Map<String, String> titlesWithAirYear = new LinkedHashMap<>();
+            NegativeSeriesCache negativeCache = NegativeSeriesCache.getInstance();
+            ResultSet titlesRs =
+                  dbConnection.getSelectEpgTitlesStatement(epgSeriesIndicator, highWaterMark, retryTitles).executeQuery();
+            while (titlesRs.next()) {
+               String title = titlesRs.getString("title");
+               String originalAirDate = titlesRs.getString("originalAirDate");
+               String airYear = originalAirDate != null ? originalAirDate.substring(0, 4) : null;
+               if (!MPEpisodeNumberGenerator.config.isOfflineOnlySeries(title)
+                     && !negativeCache.isUnresolvable(TheTvDbController.getQuerySeriesName(title), airYear)) {
+                  titlesWithAirYear.put(title, airYear);
                }
             }
-
-            // Print statistics
-            if (lineCounter % 100 == 0) {
-               MPEpisodeNumberGenerator.logger.info((lineCounter / epgEpisodesSize) * 100 + " % processed...");
-               Date tmpDate = new Date();
-               long tmpLong = tmpDate.getTime();
-               double currentRunTime = tmpLong - beginningDateLong;
-               double timeEstimation = (currentRunTime / lineCounter) * epgEpisodesSize - currentRunTime;
-               double timeEstimationMinutes = timeEstimation / 1000 / 60;
-               String timeStats = "Scan runs since " + sdf.format(beginningDate) + " and will be ready in "
-                     + timeEstimationMinutes + " minutes";
-               MPEpisodeNumberGenerator.logger.warn(timeStats);
-            } else if (lineCounter == epgEpisodesSize) {
-               MPEpisodeNumberGenerator.logger.info((lineCounter / epgEpisodesSize) * 100 + " % processed...");
-               Date endDate = new Date();
-               double diffTime = endDate.getTime() - beginningDateLong;
-               double runTime = diffTime / 1000 / 60;
-               MPEpisodeNumberGenerator.logger.warn("Scan started " + sdf.format(beginningDate) + ", ended "
-                     + sdf.format(endDate) + " and took " + runTime + " minutes");
-            }
+            titlesRs.close();
+            seriesResolver = new SeriesResolver(theTvDbParallelism);
+            seriesResolver.resolve(titlesWithAirYear);
          }
+
+         // Begin Scan
+         MPEpisodeNumberGenerator.logger.info("Beginning scan of " + epgEpisodesSize + " epg lines in the database");
+         PreparedStatement stmt = dbConnection.getSelectEpgTableStatement(epgSeriesIndicator, highWaterMark, retryTitles);
+         ResultSet rs = stmt.executeQuery();
+         epgWriter = dbConnection.createEpgUpdateWriter();
+         epgWriter.setWriteGate(backup);
+         OfflineExtractor offlineExtractor = new OfflineExtractor(MPEpisodeNumberGenerator.config.getEpgPatterns());
+         EpgScanPipeline pipeline = new EpgScanPipeline(epgWriter, offlineExtractor, resolutionCache, scanState,
+               seriesResolver, MPEpisodeNumberGenerator.episodeNameSubstitutions,
+               Runtime.getRuntime().availableProcessors());
+         pipeline.run(rs, epgEpisodesSize);
          rs.close();
+         epgWriter.close();
+         MPEpisodeNumberGenerator.logger.info("Wrote " + epgWriter.getCommittedUpdates() + " episode numbers to the database");
+         if (resolutionCache != null) {
+            resolutionCache.save();
+         }
+         if (scanState != null) {
+            scanState.save();
+         }
+         NegativeSeriesCache.saveInstance();
+         // Saved last, so the manifest is newer than the last change of the cache directory
+         CacheManifest.saveInstance();
+         // Report a failed backup even if no EPG line had to be updated
+         backup.get();
          MPEpisodeNumberGenerator.trayIcon.displayMessage("Info",
                "MPEpisodeNumberGenerator ended successfully. All of your episodes should now have "
                      + "series and episode numbers in the EPG.",
@@ -377,9 +320,113 @@ public class MPEpisodeNumberGenerator {
       } catch (Exception e) {
          MPEpisodeNumberGenerator.logger.error(
                "When scanning epg an Exception has been thrown (" + e.getMessage() + ")", e);
+         if (epgWriter != null) {
+            // Keep the episode numbers found so far
+            try {
+               epgWriter.close();
+            } catch (Exception closeException) {
+               MPEpisodeNumberGenerator.logger.error(
+                     "Could not commit pending EPG updates (" + closeException.getMessage() + ")", closeException);
+            }
+         }
+         if (resolutionCache != null) {
+            try {
+               resolutionCache.save();
+            } catch (IOException saveException) {
+               MPEpisodeNumberGenerator.logger.error(
+                     "Could not save resolution cache (" + saveException.getMessage() + ")", saveException);
+            }
+         }
+         try {
+            NegativeSeriesCache.saveInstance();
+         } catch (IOException saveException) {
+            MPEpisodeNumberGenerator.logger.error(
+                  "Could not save negative series cache (" + saveException.getMessage() + ")", saveException);
+         }
+         try {
+            CacheManifest.saveInstance();
+         } catch (IOException saveException) {
+            MPEpisodeNumberGenerator.logger.error(
+                  "Could not save cache manifest (" + saveException.getMessage() + ")", saveException);
+         }
          MPEpisodeNumberGenerator.trayIcon.displayMessage("Error",
                "MPEpisodeNumberGenerator terminated abnormally. Please check the log file. ", MessageType.ERROR);
       }
+      MPEpisodeNumberGenerator.exitDelayed();
+   }
+
+   /**
+    * Starts the backup of the database in a background thread
+    * 
+    * @param dbConnection
+    *           connection to MediaPortal's database
+    * @param epgSeriesIndicator
+    *           Beginning of description text in EPG table
+    * @param highWaterMark
+    *           highest program ID scanned in a previous run or 0
+    * @param retryTitles
+    *           titles to be scanned regardless of the high-water mark or null
+    * @return completion code of the backup. The task fails, if the backup could not be taken
+    */
+   private static Future<Integer> startBackup(final DatabaseConnection dbConnection, final String epgSeriesIndicator,
+         final int highWaterMark, final Set<String> retryTitles) {
+      ExecutorService backupExecutor = Executors.newSingleThreadExecutor();
+      Future<Integer> backup = backupExecutor.submit(new Callable<Integer>() {
+
+         @Override
+         public Integer call() throws Exception {
+            try {
+               int returnCode = dbConnection.backupDatabase(epgSeriesIndicator, highWaterMark, retryTitles);
+               if (returnCode != 0) {
+                  throw new IOException("Could not take MediaPortal database backup (RC=" + returnCode + ")");
+               }
+               MPEpisodeNumberGenerator.logger.info("MediaPortal database backup taken successfully");
+               return returnCode;
+            } catch (Exception e) {
+               MPEpisodeNumberGenerator.logger.error("Could not back up database (" + e.getMessage() + ")", e);
+               throw e;
+            }
+         }
+      });
+      backupExecutor.shutdown();
+      return backup;
+   }
+
+   /**
+    * Lists and/or clears the series titles thetvdb had no series for
+    * 
+    * @param list
+    *           true to print the cached series titles
+    * @param clear
+    *           true to remove all cached series titles, so they are searched again in the next run
+    * @throws IOException
+    *            Is thrown, if the cleared cache cannot be saved
+    */
+   private static void maintainNegativeCache(boolean list, boolean clear) throws IOException {
+      NegativeSeriesCache negativeCache = NegativeSeriesCache.getInstance();
+      if (list) {
+         SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+         for (NegativeSeriesCache.Entry entry : negativeCache.getEntries()) {
+            String line = entry.getTitle() + "\t" + entry.getAirYear() + "\t" + sdf.format(new Date(entry.getRecordedAt()));
+            System.out.println(line);
+            MPEpisodeNumberGenerator.logger.info("Negative series cache: " + line);
+         }
+         MPEpisodeNumberGenerator.trayIcon.displayMessage("Info", "MPEpisodeNumberGenerator listed "
+               + negativeCache.getEntries().size() + " series titles without thetvdb series.", MessageType.INFO);
+      }
+      if (clear) {
+         int removed = negativeCache.clear();
+         negativeCache.save();
+         MPEpisodeNumberGenerator.logger.info("Removed " + removed + " series titles from the negative series cache");
+         MPEpisodeNumberGenerator.trayIcon.displayMessage("Info",
+               "MPEpisodeNumberGenerator removed " + removed + " series titles without thetvdb series.", MessageType.INFO);
+      }
+   }
+
+   /**
+    * Removes the tray icon and exits the application after 10 seconds, so the last notification can be read
+    */
+   private static void exitDelayed() {
       Timer timer = new Timer();
       timer.schedule(new TimerTask() {
 
@@ -441,16 +488,16 @@ public class MPEpisodeNumberGenerator {
    }
 
    /**
-    * @return Table of episode names in the epg with their substitution name to be used for search on thetvdb.com
+    * @return Substitutions of episode names in the epg by the names to be used for search on thetvdb.com
     */
-   public static Hashtable<String, String> getEpisodeNameSubstitutions() {
+   public static SubstitutionEngine getEpisodeNameSubstitutions() {
       return MPEpisodeNumberGenerator.episodeNameSubstitutions;
    }
 
    /**
-    * @return Table of series names in the epg with their substitution name to be used for search on thetvdb.coms
+    * @return Substitutions of series names in the epg by the names to be used for search on thetvdb.com
     */
-   public static Hashtable<String, String> getSeriesNameSubstitutions() {
+   public static SubstitutionEngine getSeriesNameSubstitutions() {
       return MPEpisodeNumberGenerator.seriesNameSubstitutions;
    }
 }
@@ -0,0 +1,160 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes season and episode numbers to MediaPortal's program table in bulk.
+ * The updates are loaded into a temporary table using multi-row inserts and
+ * applied to the program table with a single <code>UPDATE ... JOIN</code> per
+ * transaction, so the amount of statements executed does not grow with the
+ * amount of updated lines. Choose a large commit size to apply many updates at
+ * once.
+ *
+ * @author Oliver
+ *
+ */
+public class BulkEpgUpdateWriter extends EpgUpdateWriter {
+	/**
+	 * Logger of the class {@link BulkEpgUpdateWriter}
+	 */
+	private static Logger logger = LogManager.getLogger(BulkEpgUpdateWriter.class);
+
+	/**
+	 * Name of the temporary table holding the updates
+	 */
+	private static final String TEMP_TABLE = "mpeng_episode_update";
+
+	/**
+	 * Maximal amount of rows inserted by one statement. MySQL allows at most
+	 * 65535 parameters per statement
+	 */
+	private static final int MAX_ROWS_PER_INSERT = 1000;
+
+	/**
+	 * SQL statement creating the temporary table
+	 */
+	private static final String SQL_CREATE_TEMP_TABLE = "CREATE TEMPORARY TABLE " + TEMP_TABLE
+			+ " (idProgram INT NOT NULL PRIMARY KEY, seriesNum VARCHAR(200) NOT NULL, episodeNum VARCHAR(200) NOT NULL)";
+
+	/**
+	 * SQL statement dropping the temporary table
+	 */
+	private static final String SQL_DROP_TEMP_TABLE = "DROP TEMPORARY TABLE IF EXISTS " + TEMP_TABLE;
+
+	/**
+	 * SQL statement applying the updates of the temporary table
+	 */
+	private static final String SQL_APPLY_UPDATES = "UPDATE mptvdb.program p JOIN " + TEMP_TABLE
+			+ " u ON p.idProgram = u.idProgram SET p.seriesNum = u.seriesNum, p.episodeNum = u.episodeNum";
+
+	/**
+	 * SQL statement emptying the temporary table after the updates have been
+	 * applied
+	 */
+	private static final String SQL_CLEAR_TEMP_TABLE = "DELETE FROM " + TEMP_TABLE;
+
+	/**
+	 * Amount of rows inserted by {@link #statement}
+	 */
+	private int rowsPerInsert = 0;
+
+	/**
+	 * @param pool
+	 *            pool of connections to MediaPortal's database
+	 * @param batchSize
+	 *            amount of updates inserted into the temporary table at once
+	 * @param commitSize
+	 *            amount of updates applied and committed in one transaction
+	 * @param retries
+	 *            amount of retries after transient errors
+	 */
+	public BulkEpgUpdateWriter(ConnectionPool pool, int batchSize, int commitSize, int retries) {
+		super(pool, batchSize, commitSize, retries);
+	}
+
+	@Override
+	protected void prepare() throws SQLException {
+		// a pooled connection may still have the table of a previous writer
+		try (Statement ddl = connection.createStatement()) {
+			ddl.execute(SQL_DROP_TEMP_TABLE);
+			ddl.execute(SQL_CREATE_TEMP_TABLE);
+		}
+		rowsPerInsert = Math.min(batchSize, MAX_ROWS_PER_INSERT);
+		statement = connection.prepareStatement(getInsertSql(rowsPerInsert));
+	}
+
+	@Override
+	protected void write(List<Update> updates) throws SQLException {
+		for (int i = 0; i < updates.size(); i += rowsPerInsert) {
+			List<Update> rows = updates.subList(i, Math.min(i + rowsPerInsert, updates.size()));
+			if (rows.size() == rowsPerInsert) {
+				insert(statement, rows);
+			} else {
+				try (PreparedStatement lastInsert = connection.prepareStatement(getInsertSql(rows.size()))) {
+					insert(lastInsert, rows);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void apply() throws SQLException {
+		try (Statement update = connection.createStatement()) {
+			int updatedLines = update.executeUpdate(SQL_APPLY_UPDATES);
+			logger.debug("Applied EPG updates to " + updatedLines + " lines");
+			update.executeUpdate(SQL_CLEAR_TEMP_TABLE);
+		}
+	}
+
+	@Override
+	protected void closeStatements() throws SQLException {
+		super.closeStatements();
+		try (Statement ddl = connection.createStatement()) {
+			ddl.execute(SQL_DROP_TEMP_TABLE);
+		}
+	}
+
+	/**
+	 * Inserts updates into the temporary table
+	 *
+	 * @param insert
+	 *            statement inserting exactly the amount of updates
+	 * @param rows
+	 *            updates to be inserted
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	private static void insert(PreparedStatement insert, List<Update> rows) throws SQLException {
+		int parameter = 1;
+		for (Update update : rows) {
+			insert.setInt(parameter++, update.getProgramId());
+			insert.setString(parameter++, update.getSeriesNumber());
+			insert.setString(parameter++, update.getEpisodeNumber());
+		}
+		insert.executeUpdate();
+	}
+
+	/**
+	 * @param rows
+	 *            amount of rows inserted at once
+	 * @return SQL statement inserting the rows into the temporary table.
+	 *         Updates of the same line replace each other
+	 */
+	private static String getInsertSql(int rows) {
+		StringBuilder sql = new StringBuilder("INSERT INTO ").append(TEMP_TABLE).append(" (idProgram, seriesNum, episodeNum) VALUES ");
+		for (int i = 0; i < rows; i++) {
+			if (i > 0) {
+				sql.append(',');
+			}
+			sql.append("(?,?,?)");
+		}
+		sql.append(" ON DUPLICATE KEY UPDATE seriesNum = VALUES(seriesNum), episodeNum = VALUES(episodeNum)");
+		return sql.toString();
+	}
+}
@@ -0,0 +1,140 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Helper methods to write files of the local file cache. Files are always
+ * written to a temporary file in the directory of the target file first and
+ * moved to the target afterwards, so an interrupted run never leaves a
+ * truncated file in the cache.
+ *
+ * @author Oliver
+ *
+ */
+public final class CacheFiles {
+	/**
+	 * Prefix of temporary files ({@value #PREFIX_TEMP_FILE}). Temporary files
+	 * never start with the prefix of a cache file
+	 */
+	public static final String PREFIX_TEMP_FILE = "~";
+
+	/**
+	 * Suffix of temporary files ({@value #SUFFIX_TEMP_FILE})
+	 */
+	public static final String SUFFIX_TEMP_FILE = ".tmp";
+
+	/**
+	 * Time after which a temporary file is considered left over by an
+	 * interrupted run and may be deleted (ms)
+	 */
+	public static final long TEMP_FILE_MAX_AGE = 60 * 60 * 1000;
+
+	/**
+	 * No instances needed
+	 */
+	private CacheFiles() {
+	}
+
+	/**
+	 * Creates a new temporary file next to the given target file
+	 *
+	 * @param targetFile
+	 *            file that will be replaced by the temporary file
+	 * @return empty temporary file
+	 * @throws IOException
+	 *             Is thrown, if the temporary file cannot be created
+	 */
+	public static File createTempFile(File targetFile) throws IOException {
+		File directory = targetFile.getAbsoluteFile().getParentFile();
+		if (!directory.exists()) {
+			directory.mkdirs();
+		}
+		return File.createTempFile(PREFIX_TEMP_FILE + targetFile.getName() + ".", SUFFIX_TEMP_FILE, directory);
+	}
+
+	/**
+	 * @param name
+	 *            name of a file
+	 * @return true, if the name is the name of a temporary file
+	 */
+	public static boolean isTempFile(String name) {
+		return name.startsWith(PREFIX_TEMP_FILE) && name.endsWith(SUFFIX_TEMP_FILE);
+	}
+
+	/**
+	 * Deletes a temporary file left over by an interrupted run. Temporary files
+	 * modified within {@link #TEMP_FILE_MAX_AGE} are kept, because another run
+	 * may still be writing them
+	 *
+	 * @param file
+	 *            file in a cache directory
+	 * @return true, if the file was a left over temporary file and has been
+	 *         deleted
+	 */
+	public static boolean deleteLeftOverTempFile(File file) {
+		return isTempFile(file.getName()) && file.isFile() && file.lastModified() < System.currentTimeMillis() - TEMP_FILE_MAX_AGE
+				&& file.delete();
+	}
+
+	/**
+	 * Downloads a remote file with a single request into a temporary file next
+	 * to the target file. The target file is not touched, the temporary file
+	 * has to be moved using {@link #replace(File, File)} or deleted by the
+	 * caller.
+	 *
+	 * @param url
+	 *            remote URL
+	 * @param targetFile
+	 *            cache file the download is meant for
+	 * @return temporary file with the complete download
+	 * @throws IOException
+	 *             Is thrown, if the download or writing the temporary file
+	 *             fails
+	 */
+	public static File download(URL url, File targetFile) throws IOException {
+		File tempFile = createTempFile(targetFile);
+		try (InputStream inputStream = url.openStream();
+				ReadableByteChannel rbc = Channels.newChannel(inputStream);
+				FileOutputStream fos = new FileOutputStream(tempFile)) {
+			FileChannel fileChannel = fos.getChannel();
+			long position = 0;
+			long transferred;
+			while ((transferred = fileChannel.transferFrom(rbc, position, Long.MAX_VALUE)) > 0) {
+				position += transferred;
+			}
+		} catch (IOException e) {
+			tempFile.delete();
+			throw e;
+		}
+		return tempFile;
+	}
+
+	/**
+	 * Replaces the target file by the temporary file. The file is moved
+	 * atomically, if the file system supports it
+	 *
+	 * @param tempFile
+	 *            completely written temporary file
+	 * @param targetFile
+	 *            file to be replaced
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be moved
+	 */
+	public static void replace(File tempFile, File targetFile) throws IOException {
+		try {
+			Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(tempFile.toPath(), targetFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
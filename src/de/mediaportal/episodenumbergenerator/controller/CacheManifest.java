@@ -0,0 +1,806 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.mediaportal.episodenumbergenerator.model.series.Updates;
+
+/**
+ * Persistent index of the query and seriesdata files in the file cache. For
+ * every file the manifest records the series ID, the time it has been fetched,
+ * its size, its modification time, its CRC32 checksum, the time of the last
+ * access and the amount of accesses. Expiry, the lookup of the oldest seriesdata file and the
+ * invalidation of updated series work on the manifest instead of listing the
+ * cache directory and reading the modification time of every file. The
+ * directory is only listed if there is no manifest yet or files have been
+ * added or removed since the manifest was saved.
+ * <p>
+ * Reading a file only compares its size and modification time with the
+ * manifest. The checksum is only computed if the modification time differs or
+ * the directory is reconciled.
+ * <p>
+ * Binary seriesdata files whose changed episodes have been patched keep the
+ * fetch time of the whole series. The manifest records the time of the last
+ * patch and the patched episode IDs, so the next updates are requested since
+ * the patch and episodes already patched are not fetched again.
+ * <p>
+ * The cache may be limited in size and amount of files. If a limit is
+ * exceeded, the least recently ({@link #EVICTION_LRU}) or least frequently
+ * ({@link #EVICTION_LFU}) used files are evicted until the cache is 10% below
+ * its limits.
+ *
+ * @author Oliver
+ *
+ */
+public class CacheManifest {
+	/**
+	 * Filename of the manifest ({@value #FILENAME_MANIFEST})
+	 */
+	public final static String FILENAME_MANIFEST = "manifest.txt";
+
+	/**
+	 * Eviction policy evicting the least recently used files first
+	 */
+	public final static String EVICTION_LRU = "lru";
+
+	/**
+	 * Eviction policy evicting the least frequently used files first
+	 */
+	public final static String EVICTION_LFU = "lfu";
+
+	/**
+	 * First line of the manifest containing the format version
+	 */
+	private final static String HEADER = "#MPEpisodeNumberGenerator cache manifest v1";
+
+	/**
+	 * Logger of the class {@link CacheManifest}
+	 */
+	private static Logger logger = LogManager.getLogger(CacheManifest.class);
+
+	/**
+	 * Singleton-Instance of the class {@link CacheManifest}
+	 */
+	private static CacheManifest instance = null;
+
+	/**
+	 * Cache directory
+	 */
+	private File cacheDirectory = null;
+
+	/**
+	 * File the manifest is persisted to
+	 */
+	private File manifestFile = null;
+
+	/**
+	 * Entries by the name of their cache file
+	 */
+	private Map<String, Entry> entries = new HashMap<>();
+
+	/**
+	 * Size of all files in the manifest in bytes
+	 */
+	private long totalBytes = 0;
+
+	/**
+	 * Maximal size of all files in bytes or 0 for no limit
+	 */
+	private long maxBytes = 0;
+
+	/**
+	 * Maximal amount of files or 0 for no limit
+	 */
+	private int maxEntries = 0;
+
+	/**
+	 * Order in which files are evicted
+	 */
+	private Comparator<Entry> evictionOrder = LEAST_RECENTLY_USED;
+
+	/**
+	 * Orders entries by their last access, the least recently used first
+	 */
+	private static final Comparator<Entry> LEAST_RECENTLY_USED = new Comparator<Entry>() {
+
+		@Override
+		public int compare(Entry o1, Entry o2) {
+			int compared = Long.compare(o1.lastAccess, o2.lastAccess);
+			return compared != 0 ? compared : Long.compare(o1.fetchTime, o2.fetchTime);
+		}
+	};
+
+	/**
+	 * Orders entries by their amount of accesses, the least frequently used
+	 * first
+	 */
+	private static final Comparator<Entry> LEAST_FREQUENTLY_USED = new Comparator<Entry>() {
+
+		@Override
+		public int compare(Entry o1, Entry o2) {
+			int compared = Integer.compare(o1.accessCount, o2.accessCount);
+			return compared != 0 ? compared : LEAST_RECENTLY_USED.compare(o1, o2);
+		}
+	};
+
+	/**
+	 * Flag if the manifest has been changed since it was loaded or saved
+	 */
+	private boolean dirty = false;
+
+	/**
+	 * @return Singleton instance of the class on the cache directory
+	 *         {@link TheTvDbController#PATH_CACHE}
+	 */
+	public synchronized static CacheManifest getInstance() {
+		if (instance == null) {
+			instance = new CacheManifest(new File(TheTvDbController.PATH_CACHE));
+		}
+		return instance;
+	}
+
+	/**
+	 * Saves the manifest, if it has been used and changed
+	 *
+	 * @throws IOException
+	 *             Is thrown, if the manifest cannot be written
+	 */
+	public synchronized static void saveInstance() throws IOException {
+		if (instance != null) {
+			instance.save();
+		}
+	}
+
+	/**
+	 * Loads the manifest of the cache directory and adds the files it does not
+	 * know yet
+	 *
+	 * @param cacheDirectory
+	 *            cache directory
+	 */
+	private CacheManifest(File cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+		this.manifestFile = new File(cacheDirectory, FILENAME_MANIFEST);
+		boolean loaded = false;
+		if (manifestFile.exists()) {
+			try {
+				loaded = load();
+			} catch (IOException | RuntimeException e) {
+				logger.warn("Could not read cache manifest " + manifestFile.getPath() + " (" + e.getMessage() + ")");
+				entries.clear();
+			}
+		}
+		// the directory changes whenever a file is added or removed
+		if (!loaded || cacheDirectory.lastModified() > manifestFile.lastModified()) {
+			reconcile();
+		}
+	}
+
+	/**
+	 * Reads the manifest file
+	 *
+	 * @return true, if the manifest has a known format
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be read
+	 */
+	private boolean load() throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), StandardCharsets.UTF_8))) {
+			String line = reader.readLine();
+			if (!HEADER.equals(line)) {
+				logger.info("Cache manifest has an unknown format and is rebuilt");
+				return false;
+			}
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length == 10) {
+					Entry entry = new Entry(fields[0], fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+							Long.parseLong(fields[4]));
+					entry.lastAccess = Long.parseLong(fields[5]);
+					entry.accessCount = Integer.parseInt(fields[6]);
+					entry.modified = Long.parseLong(fields[7]);
+					entry.patchTime = Long.parseLong(fields[8]);
+					if (!fields[9].isEmpty()) {
+						Collections.addAll(entry.patchedEpisodes, fields[9].split(","));
+					}
+					put(entry);
+				}
+			}
+		}
+		logger.debug("Loaded " + entries.size() + " entries of the cache manifest");
+		return true;
+	}
+
+	/**
+	 * Lists the cache directory once, adds the files missing in the manifest
+	 * and removes the entries of deleted files. Temporary files left over by
+	 * interrupted runs are deleted. Files whose modification time
+	 * differs from the manifest are verified by their checksum and replaced,
+	 * if their content has changed
+	 */
+	private void reconcile() {
+		File[] files = cacheDirectory.listFiles();
+		if (files == null) {
+			return;
+		}
+		Map<String, Entry> reconciled = new HashMap<>();
+		int added = 0;
+		int deletedTempFiles = 0;
+		for (File file : files) {
+			String key = file.getName();
+			if (CacheFiles.deleteLeftOverTempFile(file)) {
+				deletedTempFiles++;
+				continue;
+			} else if (!isTracked(key) || !file.isFile()) {
+				continue;
+			}
+			Entry entry = entries.get(key);
+			try {
+				if (entry != null && entry.size == file.length() && entry.modified != file.lastModified()) {
+					if (entry.checksum == checksum(file)) {
+						entry.modified = file.lastModified();
+					} else {
+						entry = null;
+					}
+				}
+				if (entry == null || entry.size != file.length()) {
+					entry = new Entry(key, getSeriesId(key), file.lastModified(), file.length(), checksum(file));
+					entry.modified = file.lastModified();
+					added++;
+				}
+			} catch (IOException e) {
+				logger.warn("Could not add cache file " + key + " to the manifest (" + e.getMessage() + ")");
+				continue;
+			}
+			reconciled.put(key, entry);
+		}
+		logger.info("Cache manifest: added " + added + " and removed " + (entries.size() + added - reconciled.size())
+				+ " entries after listing the cache directory");
+		if (deletedTempFiles > 0) {
+			logger.info("Deleted " + deletedTempFiles + " temporary files left over by interrupted runs");
+		}
+		entries = new HashMap<>();
+		totalBytes = 0;
+		for (Entry entry : reconciled.values()) {
+			put(entry);
+		}
+		dirty = true;
+	}
+
+	/**
+	 * Sets the limits of the cache and evicts files, if they are exceeded
+	 *
+	 * @param maxBytes
+	 *            maximal size of all files in bytes or 0 for no limit
+	 * @param maxEntries
+	 *            maximal amount of files or 0 for no limit
+	 * @param evictionPolicy
+	 *            {@link #EVICTION_LRU} or {@link #EVICTION_LFU}
+	 * @return amount of evicted files
+	 */
+	public synchronized int setLimits(long maxBytes, int maxEntries, String evictionPolicy) {
+		this.maxBytes = Math.max(0, maxBytes);
+		this.maxEntries = Math.max(0, maxEntries);
+		if (EVICTION_LFU.equalsIgnoreCase(evictionPolicy)) {
+			this.evictionOrder = LEAST_FREQUENTLY_USED;
+		} else {
+			if (!EVICTION_LRU.equalsIgnoreCase(evictionPolicy)) {
+				logger.warn("Unknown cache eviction policy '" + evictionPolicy + "', using '" + EVICTION_LRU + "'");
+			}
+			this.evictionOrder = LEAST_RECENTLY_USED;
+		}
+		return evict(null);
+	}
+
+	/**
+	 * Records a file just written to the cache
+	 *
+	 * @param file
+	 *            cache file
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be read
+	 */
+	public void record(File file) throws IOException {
+		record(file, System.currentTimeMillis());
+	}
+
+	/**
+	 * Records a file written to the cache
+	 *
+	 * @param file
+	 *            cache file
+	 * @param fetchTime
+	 *            time its data has been fetched from thetvdb.com (ms since
+	 *            Epoch)
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be read
+	 */
+	public void record(File file, long fetchTime) throws IOException {
+		record(file, fetchTime, null);
+	}
+
+	/**
+	 * Records a binary seriesdata file whose changed episodes have just been
+	 * patched. The file keeps the fetch time of the whole series
+	 *
+	 * @param file
+	 *            patched cache file
+	 * @param episodeIds
+	 *            IDs of the patched episodes
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be read
+	 */
+	public void recordPatch(File file, Collection<String> episodeIds) throws IOException {
+		record(file, System.currentTimeMillis(), episodeIds);
+	}
+
+	/**
+	 * Records a file written to the cache
+	 *
+	 * @param file
+	 *            cache file
+	 * @param fetchTime
+	 *            time its data has been fetched from thetvdb.com (ms since
+	 *            Epoch)
+	 * @param patchedEpisodes
+	 *            IDs of the episodes patched into the file or null, if the file
+	 *            has been fetched completely
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be read
+	 */
+	private void record(File file, long fetchTime, Collection<String> patchedEpisodes) throws IOException {
+		String key = file.getName();
+		Entry entry = new Entry(key, getSeriesId(key), fetchTime, file.length(), checksum(file));
+		entry.modified = file.lastModified();
+		entry.lastAccess = System.currentTimeMillis();
+		entry.accessCount = 1;
+		synchronized (this) {
+			Entry replaced = put(entry);
+			if (replaced != null) {
+				entry.accessCount += replaced.accessCount;
+			}
+			if (patchedEpisodes != null) {
+				if (replaced != null) {
+					entry.fetchTime = replaced.fetchTime;
+					entry.patchedEpisodes.addAll(replaced.patchedEpisodes);
+				}
+				entry.patchTime = entry.lastAccess;
+				entry.patchedEpisodes.addAll(patchedEpisodes);
+			}
+			dirty = true;
+			evict(key);
+		}
+	}
+
+	/**
+	 * Records an access of a cache file
+	 *
+	 * @param file
+	 *            cache file that has been read
+	 */
+	public synchronized void touch(File file) {
+		Entry entry = entries.get(file.getName());
+		if (entry != null) {
+			entry.lastAccess = System.currentTimeMillis();
+			entry.accessCount++;
+			dirty = true;
+		}
+	}
+
+	/**
+	 * @param file
+	 *            cache file
+	 * @return time its data has been fetched from thetvdb.com (ms since Epoch)
+	 *         or -1, if the file is unknown
+	 */
+	public synchronized long getFetchTime(File file) {
+		Entry entry = entries.get(file.getName());
+		return entry == null ? -1 : entry.fetchTime;
+	}
+
+	/**
+	 * Checks size and modification time of a cache file against the manifest.
+	 * The checksum is only compared, if the modification time differs
+	 *
+	 * @param file
+	 *            existing cache file
+	 * @return true, if the file is unchanged since it has been recorded or is
+	 *         unknown
+	 */
+	public boolean isIntact(File file) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(file.getName());
+		}
+		if (entry == null) {
+			return true;
+		}
+		long modified = file.lastModified();
+		if (entry.size != file.length()) {
+			return false;
+		} else if (entry.modified == modified) {
+			return true;
+		}
+		try {
+			if (entry.checksum != checksum(file)) {
+				return false;
+			}
+		} catch (IOException e) {
+			return false;
+		}
+		// the content is unchanged, e.g. the file has been copied
+		synchronized (this) {
+			entry.modified = modified;
+			dirty = true;
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes a cache file and its entry
+	 *
+	 * @param file
+	 *            cache file
+	 */
+	public synchronized void remove(File file) {
+		file.delete();
+		Entry entry = entries.remove(file.getName());
+		if (entry != null) {
+			totalBytes -= entry.size;
+			dirty = true;
+		}
+	}
+
+	/**
+	 * Deletes the cache files with the given prefix fetched before the given
+	 * time
+	 *
+	 * @param prefix
+	 *            prefix of the file names
+	 * @param timestamp
+	 *            time since Epoch (ms)
+	 * @return amount of deleted files
+	 */
+	public synchronized int removeFetchedBefore(String prefix, long timestamp) {
+		int removed = 0;
+		for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+			Entry entry = iterator.next();
+			if (entry.key.startsWith(prefix) && entry.fetchTime < timestamp) {
+				new File(cacheDirectory, entry.key).delete();
+				iterator.remove();
+				totalBytes -= entry.size;
+				removed++;
+			}
+		}
+		dirty |= removed > 0;
+		return removed;
+	}
+
+	/**
+	 * Deletes the seriesdata files of all updated series. Files with the given
+	 * suffix are kept and marked as stale instead, so their changed episodes
+	 * can be patched. The patched episode IDs of files patched before the
+	 * updates have been requested are forgotten, because every change in the
+	 * updates happened after the patch
+	 *
+	 * @param updates
+	 *            series updated on thetvdb.com
+	 * @param patchableSuffix
+	 *            suffix of the files that are kept or null to delete all files
+	 *            of updated series
+	 * @param since
+	 *            time the updates have been requested since (ms since Epoch)
+	 * @return amount of deleted files
+	 */
+	public synchronized int invalidate(Updates updates, String patchableSuffix, long since) {
+		int removed = 0;
+		for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext();) {
+			Entry entry = iterator.next();
+			if (entry.patchTime <= since && !entry.patchedEpisodes.isEmpty()) {
+				entry.patchedEpisodes.clear();
+				dirty = true;
+			}
+			if (entry.seriesId.isEmpty() || !updates.contains(entry.seriesId)) {
+				continue;
+			}
+			if (patchableSuffix != null && entry.key.endsWith(patchableSuffix)) {
+				logger.debug("Marking file " + entry.key + " as stale because new data on thetvdb has been found since last caching");
+				entry.stale = true;
+			} else {
+				logger.info("Deleting file " + entry.key + " because new data on thetvdb has been found since last caching");
+				new File(cacheDirectory, entry.key).delete();
+				iterator.remove();
+				totalBytes -= entry.size;
+				removed++;
+			}
+		}
+		dirty |= removed > 0;
+		return removed;
+	}
+
+	/**
+	 * @param file
+	 *            cache file
+	 * @return true, if the series of the file has been updated on thetvdb.com
+	 *         and the file has not been patched or replaced yet
+	 */
+	public synchronized boolean isStale(File file) {
+		Entry entry = entries.get(file.getName());
+		return entry != null && entry.stale;
+	}
+
+	/**
+	 * @param file
+	 *            cache file
+	 * @return IDs of the episodes patched into the file since the updates have
+	 *         been requested or an empty set
+	 */
+	public synchronized Set<String> getPatchedEpisodes(File file) {
+		Entry entry = entries.get(file.getName());
+		return entry == null ? Collections.<String> emptySet() : new HashSet<>(entry.patchedEpisodes);
+	}
+
+	/**
+	 * @param prefix
+	 *            prefix of the file names
+	 * @return earliest time the files with the prefix have been fetched or
+	 *         patched from thetvdb.com (ms since Epoch) or -1, if there is none
+	 */
+	public synchronized long getOldestRefreshTime(String prefix) {
+		long oldest = -1;
+		for (Entry entry : entries.values()) {
+			long refreshTime = Math.max(entry.fetchTime, entry.patchTime);
+			if (entry.key.startsWith(prefix) && (oldest == -1 || refreshTime < oldest)) {
+				oldest = refreshTime;
+			}
+		}
+		return oldest;
+	}
+
+	/**
+	 * @return amount of files in the manifest
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return size of all files in the manifest in bytes
+	 */
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	/**
+	 * Adds or replaces an entry
+	 *
+	 * @param entry
+	 *            entry to be added
+	 * @return replaced entry or null
+	 */
+	private Entry put(Entry entry) {
+		Entry replaced = entries.put(entry.key, entry);
+		totalBytes += entry.size - (replaced == null ? 0 : replaced.size);
+		return replaced;
+	}
+
+	/**
+	 * Evicts files in the order of the eviction policy until the cache is 10%
+	 * below its limits, if a limit is exceeded
+	 *
+	 * @param keep
+	 *            name of a file that must not be evicted or null
+	 * @return amount of evicted files
+	 */
+	private int evict(String keep) {
+		if ((maxBytes == 0 || totalBytes <= maxBytes) && (maxEntries == 0 || entries.size() <= maxEntries)) {
+			return 0;
+		}
+		// evict more than needed, so the next file does not start an eviction
+		// again
+		long targetBytes = maxBytes == 0 ? Long.MAX_VALUE : maxBytes - maxBytes / 10;
+		int targetEntries = maxEntries == 0 ? Integer.MAX_VALUE : maxEntries - maxEntries / 10;
+		List<Entry> candidates = new ArrayList<>(entries.values());
+		Collections.sort(candidates, evictionOrder);
+		int evicted = 0;
+		for (Entry entry : candidates) {
+			if (totalBytes <= targetBytes && entries.size() <= targetEntries) {
+				break;
+			}
+			if (!entry.key.equals(keep)) {
+				new File(cacheDirectory, entry.key).delete();
+				entries.remove(entry.key);
+				totalBytes -= entry.size;
+				evicted++;
+			}
+		}
+		dirty |= evicted > 0;
+		logger.info("Evicted " + evicted + " files from the cache (" + entries.size() + " files with " + totalBytes + " bytes left)");
+		return evicted;
+	}
+
+	/**
+	 * Persists the manifest, if it has been changed
+	 *
+	 * @throws IOException
+	 *             Is thrown, if the manifest cannot be written
+	 */
+	public synchronized void save() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		File tempFile = CacheFiles.createTempFile(manifestFile);
+		try {
+			try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+				writer.write(HEADER);
+				writer.newLine();
+				for (Entry entry : entries.values()) {
+					writer.write(entry.key + "\t" + entry.seriesId + "\t" + entry.fetchTime + "\t" + entry.size + "\t" + entry.checksum + "\t"
+							+ entry.lastAccess + "\t" + entry.accessCount + "\t" + entry.modified + "\t" + entry.patchTime + "\t"
+							+ String.join(",", entry.patchedEpisodes));
+					writer.newLine();
+				}
+			}
+			CacheFiles.replace(tempFile, manifestFile);
+			// mark the manifest newer than the last change of the directory
+			manifestFile.setLastModified(System.currentTimeMillis());
+			dirty = false;
+			logger.debug("Saved " + entries.size() + " entries of the cache manifest");
+		} finally {
+			if (tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * @param name
+	 *            name of a file in the cache directory
+	 * @return true, if the file is a query or seriesdata file
+	 */
+	private static boolean isTracked(String name) {
+		return (name.startsWith(TheTvDbController.FILENAME_QUERY_FILE_PREFIX)
+				|| name.startsWith(TheTvDbController.FILENAME_QUERY_SERIESDATA_PREFIX + "_"))
+				&& !name.endsWith(CacheFiles.SUFFIX_TEMP_FILE);
+	}
+
+	/**
+	 * @param name
+	 *            name of a file in the cache directory
+	 * @return series ID contained in the name of a seriesdata file or an empty
+	 *         string
+	 */
+	private static String getSeriesId(String name) {
+		String prefix = TheTvDbController.FILENAME_QUERY_SERIESDATA_PREFIX + "_";
+		int end = name.indexOf('_', prefix.length());
+		return name.startsWith(prefix) && end > 0 ? name.substring(prefix.length(), end) : "";
+	}
+
+	/**
+	 * @param file
+	 *            file to be read
+	 * @return CRC32 checksum of the content
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be read
+	 */
+	private static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[64 * 1024];
+		try (InputStream in = new FileInputStream(file)) {
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				crc.update(buffer, 0, read);
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Entry of one cache file
+	 *
+	 * @author Oliver
+	 *
+	 */
+	private static class Entry {
+		/**
+		 * Name of the cache file
+		 */
+		private String key;
+
+		/**
+		 * ID of the series or an empty string for query files
+		 */
+		private String seriesId;
+
+		/**
+		 * Time the data has been fetched from thetvdb.com (ms since Epoch)
+		 */
+		private long fetchTime;
+
+		/**
+		 * Size of the file in bytes
+		 */
+		private long size;
+
+		/**
+		 * CRC32 checksum of the file
+		 */
+		private long checksum;
+
+		/**
+		 * Modification time of the file when its checksum has been computed
+		 * (ms since Epoch)
+		 */
+		private long modified = 0;
+
+		/**
+		 * Time of the last access (ms since Epoch)
+		 */
+		private long lastAccess;
+
+		/**
+		 * Amount of accesses
+		 */
+		private int accessCount = 0;
+
+		/**
+		 * Time of the last patch of changed episodes (ms since Epoch) or 0, if
+		 * the file has never been patched
+		 */
+		private long patchTime = 0;
+
+		/**
+		 * IDs of the episodes patched into the file since the updates have
+		 * been requested
+		 */
+		private Set<String> patchedEpisodes = new HashSet<>();
+
+		/**
+		 * Flag if the series has been updated on thetvdb.com since the file
+		 * has been fetched. Not persisted, the next updates mark it again
+		 */
+		private boolean stale = false;
+
+		/**
+		 * @param key
+		 *            Name of the cache file
+		 * @param seriesId
+		 *            ID of the series or an empty string
+		 * @param fetchTime
+		 *            Time the data has been fetched (ms since Epoch)
+		 * @param size
+		 *            Size of the file in bytes
+		 * @param checksum
+		 *            CRC32 checksum of the file
+		 */
+		private Entry(String key, String seriesId, long fetchTime, long size, long checksum) {
+			this.key = key;
+			this.seriesId = seriesId;
+			this.fetchTime = fetchTime;
+			this.size = size;
+			this.checksum = checksum;
+			this.lastAccess = fetchTime;
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Semaphore;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Small pool of connections to MediaPortal's database. At most the configured
+ * amount of connections is handed out at the same time, further requests wait
+ * until a connection is returned. Connections handed out are wrappers whose
+ * {@link Connection#close()} returns the connection to the pool. Idle
+ * connections are validated before they are handed out again, so connections
+ * closed by the server (e.g. after MySQL's <code>wait_timeout</code>) are
+ * replaced by new ones.
+ *
+ * @author Oliver
+ *
+ */
+public class ConnectionPool {
+	/**
+	 * Logger of the class {@link ConnectionPool}
+	 */
+	private static Logger logger = LogManager.getLogger(ConnectionPool.class);
+
+	/**
+	 * Time to wait for the validation of an idle connection (s)
+	 */
+	private static final int VALIDATION_TIMEOUT = 5;
+
+	/**
+	 * JDBC URL of the database including the credentials
+	 */
+	private String url = null;
+
+	/**
+	 * Permits for the connections that may be handed out
+	 */
+	private Semaphore permits = null;
+
+	/**
+	 * Connections returned to the pool
+	 */
+	private Deque<Connection> idleConnections = new ArrayDeque<>();
+
+	/**
+	 * Flag if the pool has been closed
+	 */
+	private boolean closed = false;
+
+	/**
+	 * @param url
+	 *            JDBC URL of the database including the credentials
+	 * @param maxSize
+	 *            maximal amount of connections handed out at the same time
+	 */
+	public ConnectionPool(String url, int maxSize) {
+		this.url = url;
+		this.permits = new Semaphore(Math.max(1, maxSize), true);
+	}
+
+	/**
+	 * Hands out a valid connection. The connection has to be closed to return
+	 * it to the pool
+	 *
+	 * @return connection of the pool
+	 * @throws SQLException
+	 *             if no connection can be established or the thread is
+	 *             interrupted while waiting for a connection
+	 */
+	public Connection getConnection() throws SQLException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a database connection", e);
+		}
+		try {
+			Connection physicalConnection;
+			while ((physicalConnection = pollIdleConnection()) != null) {
+				if (isValid(physicalConnection)) {
+					return wrap(physicalConnection);
+				}
+				logger.info("Replacing invalid database connection");
+				closeQuietly(physicalConnection);
+			}
+			return wrap(DriverManager.getConnection(url));
+		} catch (SQLException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Closes all idle connections. Connections handed out are closed when they
+	 * are returned
+	 */
+	public synchronized void close() {
+		closed = true;
+		Connection physicalConnection;
+		while ((physicalConnection = idleConnections.poll()) != null) {
+			closeQuietly(physicalConnection);
+		}
+	}
+
+	/**
+	 * @return next idle connection or null, if there is none
+	 */
+	private synchronized Connection pollIdleConnection() {
+		return idleConnections.poll();
+	}
+
+	/**
+	 * Returns a connection to the pool
+	 *
+	 * @param physicalConnection
+	 *            connection that has been handed out
+	 */
+	private void release(Connection physicalConnection) {
+		try {
+			synchronized (this) {
+				if (closed || physicalConnection.isClosed()) {
+					closeQuietly(physicalConnection);
+				} else {
+					idleConnections.push(physicalConnection);
+				}
+			}
+		} catch (SQLException e) {
+			closeQuietly(physicalConnection);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * @param physicalConnection
+	 *            idle connection
+	 * @return true, if the connection is still usable
+	 */
+	private static boolean isValid(Connection physicalConnection) {
+		try {
+			return physicalConnection.isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param physicalConnection
+	 *            connection to be closed ignoring all errors
+	 */
+	private static void closeQuietly(Connection physicalConnection) {
+		try {
+			physicalConnection.close();
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * Wraps a connection, so closing it returns it to the pool
+	 *
+	 * @param physicalConnection
+	 *            connection to be handed out
+	 * @return wrapper of the connection
+	 */
+	private Connection wrap(final Connection physicalConnection) {
+		return (Connection) Proxy.newProxyInstance(ConnectionPool.class.getClassLoader(), new Class<?>[] { Connection.class },
+				new InvocationHandler() {
+					/**
+					 * Flag if the wrapper has been closed
+					 */
+					private boolean returned = false;
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						String methodName = method.getName();
+						if ("close".equals(methodName)) {
+							if (!returned) {
+								returned = true;
+								release(physicalConnection);
+							}
+							return null;
+						} else if ("isClosed".equals(methodName)) {
+							return returned || physicalConnection.isClosed();
+						} else if (returned) {
+							throw new SQLException("Connection has been returned to the pool");
+						}
+						try {
+							return method.invoke(physicalConnection, args);
+						} catch (InvocationTargetException e) {
+							throw e.getCause();
+						}
+					}
+				});
+	}
+}
@@ -1,15 +1,21 @@
 package de.mediaportal.episodenumbergenerator.controller;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.Vector;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import de.mediaportal.episodenumbergenerator.MPEpisodeNumberGenerator;
 import de.mediaportal.episodenumbergenerator.model.Config;
@@ -23,16 +29,69 @@ import de.mediaportal.episodenumbergenerator.model.Config;
  *
  */
 public class DatabaseConnection {
+	/**
+	 * Logger of the class {@link DatabaseConnection}
+	 */
+	private static Logger logger = LogManager.getLogger(DatabaseConnection.class);
+
+	/**
+	 * SQL statement to update season and episode number of one line in
+	 * MediaPortal's program table
+	 */
+	static final String SQL_UPDATE_EPISODE_AND_SERIES_NUMBER = "UPDATE mptvdb.program SET seriesNum = ?,episodeNum = ? WHERE idProgram = ?";
+
+	/**
+	 * Update mode sending one update per line in batches
+	 */
+	public static final String UPDATE_MODE_BATCH = "batch";
+
+	/**
+	 * Update mode applying the updates via a temporary table
+	 */
+	public static final String UPDATE_MODE_BULK = "bulk";
+
+	/**
+	 * Backup mode writing the EPG lines about to be changed using JDBC
+	 */
+	public static final String BACKUP_MODE_JDBC = "jdbc";
+
+	/**
+	 * Backup mode dumping the complete database using mysqldump
+	 */
+	public static final String BACKUP_MODE_MYSQLDUMP = "mysqldump";
+
+	/**
+	 * Suffix of the database dumps ({@value #SUFFIX_DUMP})
+	 */
+	public static final String SUFFIX_DUMP = "_backup.sql";
+
+	/**
+	 * Columns of MediaPortal's program table read while scanning the EPG
+	 */
+	private static final String EPG_COLUMNS = "idProgram, title, episodeName, description, originalAirDate";
+
 	/**
 	 * Singleton-Instance of the class {@link DatabaseConnection}
 	 */
 	private static DatabaseConnection instance = null;
 
 	/**
-	 * Connection-Object
+	 * Pool of connections used for queries and updates
+	 */
+	protected ConnectionPool pool = null;
+
+	/**
+	 * Connection-Object taken from the pool
 	 */
 	protected Connection connection = null;
 
+	/**
+	 * Connection used to stream the EPG lines. A streamed result set blocks its
+	 * connection until it is closed, so updates are written using
+	 * {@link #connection}
+	 */
+	protected Connection readConnection = null;
+
 	/**
 	 * Database name as defined in settings.properties field
 	 * <code>mediaportaldbname</code>
@@ -74,6 +133,39 @@ public class DatabaseConnection {
 	 */
 	private int amountToBackup = 10;
 
+	/**
+	 * Way the backup is taken ({@link #BACKUP_MODE_JDBC},
+	 * {@link #BACKUP_MODE_MYSQLDUMP} or none)
+	 */
+	private String backupMode = BACKUP_MODE_MYSQLDUMP;
+
+	/**
+	 * Amount of EPG updates sent to the database in one batch
+	 */
+	private int batchSize = 100;
+
+	/**
+	 * Amount of EPG updates committed in one transaction
+	 */
+	private int commitSize = 1000;
+
+	/**
+	 * Amount of EPG lines fetched at once. 0 reads the complete result into
+	 * memory, -1 streams the result row by row
+	 */
+	private int fetchSize = 0;
+
+	/**
+	 * Amount of retries of EPG updates after transient errors
+	 */
+	private int retries = 3;
+
+	/**
+	 * Way EPG updates are written ({@link #UPDATE_MODE_BATCH} or
+	 * {@link #UPDATE_MODE_BULK})
+	 */
+	private String updateMode = UPDATE_MODE_BATCH;
+
 	/**
 	 * @return Singleton instance of the class
 	 * @throws SQLException
@@ -104,15 +196,42 @@ public class DatabaseConnection {
 		mediaportaldbpassword = config.getProperty(Config.FIELD_MPDB_PASSWORD);
 		mysqlBinPath = config.getProperty(Config.FIELD_MPDB_DBPATH);
 		backupPath = config.getProperty(Config.FIELD_MPDB_BACKUP_PATH);
+		if (backupPath == null) {
+			backupPath = "bak/";
+		}
 		amountToBackup = config.getBackupCount();
+		backupMode = config.getBackupMode();
+		batchSize = config.getDbBatchSize();
+		commitSize = config.getDbCommitSize();
+		fetchSize = config.getDbFetchSize();
+		retries = config.getDbRetries();
+		updateMode = config.getDbUpdateMode();
+		if (!UPDATE_MODE_BATCH.equals(updateMode) && !UPDATE_MODE_BULK.equals(updateMode)) {
+			logger.warn("Unknown update mode '" + updateMode + "', using '" + UPDATE_MODE_BATCH + "'");
+			updateMode = UPDATE_MODE_BATCH;
+		}
 
 		// This will load the MySQL driver, each DB has its own driver
 		Class.forName("com.mysql.jdbc.Driver");
 		// Setup the connection with the DB
-		connection = DriverManager.getConnection(
-				"jdbc:mysql://" + dbHost + "/" + dbName + "?" + "user=" + mediaportaldbuser + "&password=" + mediaportaldbpassword);
-		
+		// This connection is held until the end of the run, the update writers
+		// need at least one more
+		pool = new ConnectionPool(getUrl() + "&rewriteBatchedStatements=true", Math.max(2, config.getDbPoolSize()));
+		connection = pool.getConnection();
+		if (fetchSize == 0) {
+			readConnection = connection;
+		} else if (fetchSize > 0) {
+			readConnection = DriverManager.getConnection(getUrl() + "&useCursorFetch=true");
+		} else {
+			readConnection = DriverManager.getConnection(getUrl());
+		}
+	}
 
+	/**
+	 * @return JDBC URL of MediaPortal's database including the credentials
+	 */
+	private String getUrl() {
+		return "jdbc:mysql://" + dbHost + "/" + dbName + "?" + "user=" + mediaportaldbuser + "&password=" + mediaportaldbpassword;
 	}
 
 	/**
@@ -121,9 +240,15 @@ public class DatabaseConnection {
 	public void close() {
 		try {
 
+			if (readConnection != null && readConnection != connection) {
+				readConnection.close();
+			}
 			if (connection != null) {
 				connection.close();
 			}
+			if (pool != null) {
+				pool.close();
+			}
 		} catch (Exception e) {
 			// ignore
 		}
@@ -141,9 +266,42 @@ public class DatabaseConnection {
 	 *             a closed connection
 	 */
 	public PreparedStatement getSelectEpgTableStatement(String episodeIndicator) throws SQLException {
-		String sql = "SELECT * FROM mptvdb.program WHERE seriesNum = '' AND description LIKE ? AND title NOT LIKE '%Making-of' ORDER BY title";
-		PreparedStatement statement = connection.prepareStatement(sql);
-		statement.setString(1, episodeIndicator + "%");
+		return getSelectEpgTableStatement(episodeIndicator, 0, null);
+	}
+
+	/**
+	 * Creates a {@link PreparedStatement} to find the episodes in mediaportal's
+	 * database which have a description starting with the episodeIndicator and
+	 * a program ID above the high-water mark or one of the given titles. Only
+	 * the columns needed to resolve the episodes are read. Depending on
+	 * <code>dbfetchsize</code> the lines are read into memory, streamed row by
+	 * row or fetched in chunks using a server side cursor. In the latter cases
+	 * the result set uses its own connection and has to be closed after the
+	 * scan
+	 * 
+	 * @param episodeIndicator
+	 *            Beginning of description text in EPG table
+	 * @param highWaterMark
+	 *            highest program ID scanned in a previous run or 0 to find all
+	 *            episodes
+	 * @param retryTitles
+	 *            titles to be found regardless of the high-water mark or null
+	 * @return PreparedStatement object
+	 * @throws SQLException
+	 *             if a database access error occurs or this method is called on
+	 *             a closed connection
+	 */
+	public PreparedStatement getSelectEpgTableStatement(String episodeIndicator, int highWaterMark, Collection<String> retryTitles)
+			throws SQLException {
+		PreparedStatement statement = prepareEpgStatement(readConnection, "SELECT " + EPG_COLUMNS, " ORDER BY title", episodeIndicator,
+				highWaterMark, retryTitles);
+		if (fetchSize < 0) {
+			// Connector/J only streams forward-only, read-only results with
+			// this fetch size
+			statement.setFetchSize(Integer.MIN_VALUE);
+		} else if (fetchSize > 0) {
+			statement.setFetchSize(fetchSize);
+		}
 		return statement;
 	}
 
@@ -160,41 +318,228 @@ public class DatabaseConnection {
 	 *             a closed connection
 	 */
 	public PreparedStatement getSelectEpgTableCountStatement(String episodeIndicator) throws SQLException {
-		String sql = "SELECT COUNT(*) FROM mptvdb.program WHERE seriesNum = '' AND description LIKE ? AND title NOT LIKE '%Making-of' ORDER BY title";
-		PreparedStatement statement = connection.prepareStatement(sql);
-		statement.setString(1, episodeIndicator + "%");
-		return statement;
+		return getSelectEpgTableCountStatement(episodeIndicator, 0, null);
 	}
 
 	/**
-	 * Creates a {@link PreparedStatement} to update one line in MediaPortal's
-	 * program table
+	 * Creates a {@link PreparedStatement} to count the episodes found by
+	 * {@link #getSelectEpgTableStatement(String, int, Collection)}
 	 * 
-	 * @param programId
-	 *            Unique ID of the program to be updated
-	 * @param seriesNumber
-	 *            Series Number
-	 * @param episodeNumber
-	 *            Episode Number
+	 * @param episodeIndicator
+	 *            Beginning of description text in EPG table
+	 * @param highWaterMark
+	 *            highest program ID scanned in a previous run or 0 to count all
+	 *            episodes
+	 * @param retryTitles
+	 *            titles to be counted regardless of the high-water mark or null
 	 * @return PreparedStatement object
 	 * @throws SQLException
 	 *             if a database access error occurs or this method is called on
 	 *             a closed connection
 	 */
-	public PreparedStatement updateEpgEpisodeAndSeriesNumber(int programId, String seriesNumber, String episodeNumber) throws SQLException {
-		String sql = "UPDATE mptvdb.program SET seriesNum = ?,episodeNum = ? WHERE idProgram = ?";
-		PreparedStatement statement = connection.prepareStatement(sql);
-		statement.setString(1, seriesNumber);
-		statement.setString(2, episodeNumber);
-		statement.setInt(3, programId);
+	public PreparedStatement getSelectEpgTableCountStatement(String episodeIndicator, int highWaterMark, Collection<String> retryTitles)
+			throws SQLException {
+		return prepareEpgStatement(connection, "SELECT COUNT(*)", "", episodeIndicator, highWaterMark, retryTitles);
+	}
 
+	/**
+	 * Creates a {@link PreparedStatement} to find the distinct titles of the
+	 * episodes found by
+	 * {@link #getSelectEpgTableStatement(String, int, Collection)} together
+	 * with their earliest original air date
+	 * 
+	 * @param episodeIndicator
+	 *            Beginning of description text in EPG table
+	 * @param highWaterMark
+	 *            highest program ID scanned in a previous run or 0 to find all
+	 *            episodes
+	 * @param retryTitles
+	 *            titles to be found regardless of the high-water mark or null
+	 * @return PreparedStatement object
+	 * @throws SQLException
+	 *             if a database access error occurs or this method is called on
+	 *             a closed connection
+	 */
+	public PreparedStatement getSelectEpgTitlesStatement(String episodeIndicator, int highWaterMark, Collection<String> retryTitles)
+			throws SQLException {
+		return prepareEpgStatement(connection, "SELECT title, MIN(originalAirDate) AS originalAirDate", " GROUP BY title", episodeIndicator,
+				highWaterMark, retryTitles);
+	}
+
+	/**
+	 * Creates a {@link PreparedStatement} to find the highest program ID in
+	 * mediaportal's database
+	 * 
+	 * @return PreparedStatement object
+	 * @throws SQLException
+	 *             if a database access error occurs or this method is called on
+	 *             a closed connection
+	 */
+	public PreparedStatement getSelectMaxProgramIdStatement() throws SQLException {
+		return connection.prepareStatement("SELECT MAX(idProgram) FROM mptvdb.program");
+	}
+
+	/**
+	 * Creates a {@link PreparedStatement} on the program table restricted to
+	 * episodes without series number, a description starting with the
+	 * episodeIndicator and, if a high-water mark is given, a program ID above
+	 * the high-water mark or one of the retry titles
+	 * 
+	 * @param dbConnection
+	 *            connection the statement is created on
+	 * @param select
+	 *            SELECT clause
+	 * @param suffix
+	 *            clauses following the WHERE clause
+	 * @param episodeIndicator
+	 *            Beginning of description text in EPG table
+	 * @param highWaterMark
+	 *            highest program ID scanned in a previous run or 0
+	 * @param retryTitles
+	 *            titles to be found regardless of the high-water mark or null
+	 * @return PreparedStatement object
+	 * @throws SQLException
+	 *             if a database access error occurs or this method is called on
+	 *             a closed connection
+	 */
+	private PreparedStatement prepareEpgStatement(Connection dbConnection, String select, String suffix, String episodeIndicator,
+			int highWaterMark, Collection<String> retryTitles) throws SQLException {
+		StringBuilder sql = new StringBuilder(select);
+		sql.append(" FROM mptvdb.program WHERE seriesNum = '' AND description LIKE ? AND title NOT LIKE '%Making-of'");
+		boolean hasRetryTitles = retryTitles != null && !retryTitles.isEmpty();
+		if (highWaterMark > 0) {
+			sql.append(" AND (idProgram > ?");
+			if (hasRetryTitles) {
+				sql.append(" OR title IN (");
+				for (int i = 0; i < retryTitles.size(); i++) {
+					sql.append(i == 0 ? "?" : ",?");
+				}
+				sql.append(")");
+			}
+			sql.append(")");
+		}
+		sql.append(suffix);
+		PreparedStatement statement = dbConnection.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+		int parameterIndex = 1;
+		statement.setString(parameterIndex++, episodeIndicator + "%");
+		if (highWaterMark > 0) {
+			statement.setInt(parameterIndex++, highWaterMark);
+			if (hasRetryTitles) {
+				for (String retryTitle : retryTitles) {
+					statement.setString(parameterIndex++, retryTitle);
+				}
+			}
+		}
 		return statement;
+	}
 
+	/**
+	 * Creates an {@link EpgUpdateWriter} that writes season and episode numbers
+	 * in batches of <code>dbbatchsize</code> updates and commits them in
+	 * transactions of <code>dbcommitsize</code> updates. In bulk mode a
+	 * {@link BulkEpgUpdateWriter} applies each transaction with one statement. The writer uses its
+	 * own connection of the pool and retries the uncommitted updates up to
+	 * <code>dbretries</code> times after transient errors
+	 *
+	 * @return EpgUpdateWriter object that has to be closed after the last
+	 *         update
+	 * @throws SQLException
+	 *             if a database access error occurs or this method is called on
+	 *             a closed connection
+	 */
+	public EpgUpdateWriter createEpgUpdateWriter() throws SQLException {
+		if (UPDATE_MODE_BULK.equals(updateMode)) {
+			return new BulkEpgUpdateWriter(pool, batchSize, commitSize, retries);
+		}
+		return new EpgUpdateWriter(pool, batchSize, commitSize, retries);
+	}
+
+	/**
+	 * Takes a backup before the EPG is updated as configured in
+	 * <code>backupmode</code>: a logical backup of the EPG lines about to be
+	 * changed ({@link #BACKUP_MODE_JDBC}), a dump of the complete database
+	 * using mysqldump ({@link #BACKUP_MODE_MYSQLDUMP}) or none at all. Only the
+	 * newest <code>backupcount</code> backups are kept
+	 * 
+	 * @param episodeIndicator
+	 *            Beginning of description text in EPG table
+	 * @param highWaterMark
+	 *            highest program ID scanned in a previous run or 0
+	 * @param retryTitles
+	 *            titles to be scanned regardless of the high-water mark or null
+	 * @return completion code of the backup, 0 if it has been successful
+	 * @throws IOException
+	 *             Is thrown if a problem occours writing to the backup file
+	 * @throws InterruptedException
+	 *             Is thrown if the wait command to let the application know,
+	 *             that the dump is written, is interrupted
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public int backupDatabase(String episodeIndicator, int highWaterMark, Collection<String> retryTitles)
+			throws IOException, InterruptedException, SQLException {
+		int returnCode = 0;
+		if (BACKUP_MODE_JDBC.equals(backupMode)) {
+			backupEpg(episodeIndicator, highWaterMark, retryTitles);
+		} else if (BACKUP_MODE_MYSQLDUMP.equals(backupMode)) {
+			returnCode = dumpDatabase();
+		} else {
+			logger.info("No backup taken (backup mode '" + backupMode + "')");
+			return 0;
+		}
+		deleteOldBackups();
+		return returnCode;
+	}
+
+	/**
+	 * Writes the series and episode numbers of the EPG lines about to be
+	 * changed to a compressed {@link EpgBackup}. The lines are streamed using
+	 * a separate connection
+	 * 
+	 * @param episodeIndicator
+	 *            Beginning of description text in EPG table
+	 * @param highWaterMark
+	 *            highest program ID scanned in a previous run or 0
+	 * @param retryTitles
+	 *            titles to be scanned regardless of the high-water mark or null
+	 * @return amount of EPG lines backed up
+	 * @throws IOException
+	 *             Is thrown if a problem occours writing to the backup file
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public int backupEpg(String episodeIndicator, int highWaterMark, Collection<String> retryTitles) throws IOException, SQLException {
+		File backupFile = new File(backupPath, new SimpleDateFormat("yyyyMMddHHmmss").format(new Date()) + EpgBackup.SUFFIX_BACKUP);
+		try (Connection backupConnection = DriverManager.getConnection(getUrl());
+				PreparedStatement statement = prepareEpgStatement(backupConnection, "SELECT idProgram, seriesNum, episodeNum", "",
+						episodeIndicator, highWaterMark, retryTitles)) {
+			statement.setFetchSize(Integer.MIN_VALUE);
+			try (ResultSet rs = statement.executeQuery()) {
+				return new EpgBackup(backupFile).write(rs);
+			}
+		}
+	}
+
+	/**
+	 * Restores the series and episode numbers of an {@link EpgBackup}
+	 * 
+	 * @param backupFile
+	 *            backup written by
+	 *            {@link #backupEpg(String, int, Collection)}
+	 * @return amount of EPG lines restored
+	 * @throws IOException
+	 *             Is thrown if the backup file cannot be read
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public int restoreEpg(File backupFile) throws IOException, SQLException {
+		return new EpgBackup(backupFile).restore(createEpgUpdateWriter());
 	}
 
 	/**
 	 * Dumps MediaPortal Database to hard disk to make it possible to restore
-	 * data in case of a problem
+	 * data in case of a problem. The output of mysqldump is passed to the
+	 * console, so the process cannot block on a full pipe
 	 * 
 	 * @return completion code of the dump process
 	 * @throws IOException
@@ -206,49 +551,46 @@ public class DatabaseConnection {
 	public int dumpDatabase() throws IOException, InterruptedException {
 		SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmss");
 		String timestamp = sdf.format(new Date());
-		File backupDirectory = new File("bak/");
-		if (!backupDirectory.exists()) {
-			backupDirectory.mkdirs();
-		} else {
-			// Only save the last 10 backups. Check for older backups and delete
-			// them
-			File[] files = backupDirectory.listFiles();
-			Vector<File> fileList = new Vector<File>();
-			for (File file : files) {
-				fileList.add(file);
-			}
-			fileList.sort(new Comparator<File>() {
-
-				@Override
-				public int compare(File o1, File o2) {
-					if (o1 != null && o2 != null) {
-						long o1Age = o1.lastModified();
-						long o2Age = o2.lastModified();
-						if (o1Age < o2Age) {
-							return -1;
-						} else if (o1Age > o2Age) {
-							return 1;
-						} else {
-							return 0;
-						}
-					} else {
-						return 0;
-					}
-				}
-			});
-			if (fileList.size() > amountToBackup) {
-				for (int i = amountToBackup; i < fileList.size(); i++) {
-					File fileToDelete = fileList.get(i);
-					fileToDelete.delete();
-				}
-			}
-		}
+		new File(backupPath).mkdirs();
 
 		// Dump the database
-		String executeCmd = mysqlBinPath + "mysqldump -u " + mediaportaldbuser + " -p" + mediaportaldbpassword + " " + dbName + " -r "
-				+ backupPath + timestamp + "_backup.sql";
-		Process runtimeProcess = Runtime.getRuntime().exec(executeCmd);
+		ProcessBuilder processBuilder = new ProcessBuilder(mysqlBinPath + "mysqldump", "-u", mediaportaldbuser,
+				"-p" + mediaportaldbpassword, dbName, "-r", new File(backupPath, timestamp + SUFFIX_DUMP).getPath());
+		processBuilder.redirectErrorStream(true);
+		processBuilder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+		Process runtimeProcess = processBuilder.start();
 		int processComplete = runtimeProcess.waitFor();
 		return processComplete;
 	}
+
+	/**
+	 * Deletes all but the newest <code>backupcount</code> backups in the
+	 * backup path
+	 */
+	private void deleteOldBackups() {
+		File[] files = new File(backupPath).listFiles(new FileFilter() {
+
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && (file.getName().endsWith(SUFFIX_DUMP) || file.getName().endsWith(EpgBackup.SUFFIX_BACKUP));
+			}
+		});
+		if (files == null || files.length <= amountToBackup) {
+			return;
+		}
+		// newest backups first, the names start with their timestamp
+		Arrays.sort(files, new Comparator<File>() {
+
+			@Override
+			public int compare(File o1, File o2) {
+				int compared = Long.compare(o2.lastModified(), o1.lastModified());
+				return compared != 0 ? compared : o2.getName().compareTo(o1.getName());
+			}
+		});
+		for (int i = Math.max(0, amountToBackup); i < files.length; i++) {
+			if (files[i].delete()) {
+				logger.info("Deleted old backup " + files[i].getPath());
+			}
+		}
+	}
 }
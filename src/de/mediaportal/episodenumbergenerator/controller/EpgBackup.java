@@ -0,0 +1,170 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Logical backup of the series and episode numbers of the EPG lines about to
+ * be changed. The backup is a gzip compressed file with one tab separated line
+ * per EPG line containing its program ID, series number and episode number. A
+ * backup only contains the lines a run may update, so it is written in seconds
+ * and can be restored with <code>--restore &lt;file&gt;</code>.
+ *
+ * @author Oliver
+ *
+ */
+public class EpgBackup {
+	/**
+	 * Suffix of the backup files ({@value #SUFFIX_BACKUP})
+	 */
+	public final static String SUFFIX_BACKUP = "_backup.tsv.gz";
+
+	/**
+	 * First line of the backup file containing the format version
+	 */
+	private final static String HEADER = "#MPEpisodeNumberGenerator EPG backup v1";
+
+	/**
+	 * Logger of the class {@link EpgBackup}
+	 */
+	private static Logger logger = LogManager.getLogger(EpgBackup.class);
+
+	/**
+	 * Backup file
+	 */
+	private File backupFile = null;
+
+	/**
+	 * @param backupFile
+	 *            backup file to be written or restored
+	 */
+	public EpgBackup(File backupFile) {
+		this.backupFile = backupFile;
+	}
+
+	/**
+	 * Writes the backup. The file is only replaced after all lines have been
+	 * written
+	 *
+	 * @param rs
+	 *            result set with the columns <code>idProgram</code>,
+	 *            <code>seriesNum</code> and <code>episodeNum</code>
+	 * @return amount of EPG lines written
+	 * @throws IOException
+	 *             Is thrown, if the backup file cannot be written
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public int write(ResultSet rs) throws IOException, SQLException {
+		int lines = 0;
+		File tempFile = CacheFiles.createTempFile(backupFile);
+		try {
+			try (BufferedWriter writer = new BufferedWriter(
+					new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(tempFile)), StandardCharsets.UTF_8))) {
+				writer.write(HEADER);
+				writer.newLine();
+				while (rs.next()) {
+					writer.write(rs.getInt("idProgram") + "\t" + ResolutionCache.clean(rs.getString("seriesNum")) + "\t"
+							+ ResolutionCache.clean(rs.getString("episodeNum")));
+					writer.newLine();
+					lines++;
+				}
+			}
+			CacheFiles.replace(tempFile, backupFile);
+			logger.info("Backed up " + lines + " EPG lines to " + backupFile.getPath());
+		} finally {
+			if (tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Restores the series and episode numbers of the backup. The whole file is
+	 * read and checked before the first EPG line is updated, so a truncated or
+	 * malformed backup does not restore a part of the lines
+	 *
+	 * @param writer
+	 *            writer the EPG lines are restored with. It is closed after
+	 *            the last line
+	 * @return amount of EPG lines restored
+	 * @throws IOException
+	 *             Is thrown, if the backup file cannot be read or has an
+	 *             unknown format
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public int restore(EpgUpdateWriter writer) throws IOException, SQLException {
+		int lines = 0;
+		try {
+			int validLines = read(null);
+			logger.debug("Checked " + validLines + " EPG lines of " + backupFile.getPath());
+			lines = read(writer);
+		} finally {
+			writer.close();
+		}
+		logger.info("Restored " + lines + " EPG lines from " + backupFile.getPath());
+		return lines;
+	}
+
+	/**
+	 * Reads the backup file
+	 *
+	 * @param writer
+	 *            writer the EPG lines are restored with or null, if the file
+	 *            is only checked
+	 * @return amount of EPG lines read
+	 * @throws IOException
+	 *             Is thrown, if the backup file cannot be read, has an unknown
+	 *             format or contains a malformed line
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	private int read(EpgUpdateWriter writer) throws IOException, SQLException {
+		int lines = 0;
+		int lineNumber = 1;
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(new GZIPInputStream(new FileInputStream(backupFile)), StandardCharsets.UTF_8))) {
+			String line = reader.readLine();
+			if (!HEADER.equals(line)) {
+				throw new IOException(backupFile.getPath() + " is no EPG backup of MPEpisodeNumberGenerator");
+			}
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				if (line.isEmpty()) {
+					continue;
+				}
+				String[] fields = line.split("\t", -1);
+				int programId = -1;
+				try {
+					programId = fields.length == 3 ? Integer.parseInt(fields[0]) : -1;
+				} catch (NumberFormatException e) {
+					// reported below
+				}
+				if (programId < 0) {
+					throw new IOException("Malformed line " + lineNumber + " in " + backupFile.getPath() + ": " + line);
+				}
+				if (writer != null) {
+					writer.update(programId, fields[1], fields[2]);
+				}
+				lines++;
+			}
+		}
+		return lines;
+	}
+}
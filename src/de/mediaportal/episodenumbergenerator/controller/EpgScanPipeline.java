@@ -0,0 +1,632 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.sql.ResultSet;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.mediaportal.episodenumbergenerator.MPEpisodeNumberGenerator;
+import de.mediaportal.episodenumbergenerator.controller.ResolutionCache.Resolution;
+import de.mediaportal.episodenumbergenerator.model.CaseFolding;
+import de.mediaportal.episodenumbergenerator.model.Config;
+import de.mediaportal.episodenumbergenerator.model.SubstitutionEngine;
+import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeIndex;
+import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeInformation;
+
+/**
+ * Scans the EPG lines in a pipeline of stages connected by bounded queues:
+ * <ol>
+ * <li>the calling thread reads the lines from the result set,</li>
+ * <li>one extraction worker per core looks up the resolution cache and
+ * searches the EPG texts offline,</li>
+ * <li>a single online stage resolves the remaining lines using
+ * thetvdb.com,</li>
+ * <li>a single writer stage sends the episode numbers to the
+ * {@link EpgUpdateWriter} and updates the resolution cache and scan
+ * state.</li>
+ * </ol>
+ * The bounded queues keep the memory flat: the reader blocks when the workers
+ * fall behind. If a stage fails, all other stages are aborted and the failure is
+ * thrown by {@link #run(ResultSet, double)}.
+ *
+ * @author Oliver
+ *
+ */
+public class EpgScanPipeline {
+	/**
+	 * Logger of the class {@link EpgScanPipeline}
+	 */
+	private static Logger logger = LogManager.getLogger(EpgScanPipeline.class);
+
+	/**
+	 * Capacity of each queue between two stages
+	 */
+	private static final int QUEUE_CAPACITY = 1000;
+
+	/**
+	 * Time a stage waits on a queue before checking whether another stage
+	 * failed (ms)
+	 */
+	private static final long QUEUE_TIMEOUT = 100;
+
+	/**
+	 * Amount of thetvdb controllers kept by the online stage. The lines are
+	 * ordered by title, but the workers may pass lines of neighbouring titles
+	 * in a different order
+	 */
+	private static final int MAX_CONTROLLERS = 16;
+
+	/**
+	 * Marks the end of the lines in a queue
+	 */
+	private static final EpgLine END = new EpgLine(0, null, null, null, null);
+
+	/**
+	 * Writes the episode numbers found
+	 */
+	private EpgUpdateWriter epgWriter = null;
+
+	/**
+	 * Searches the EPG texts for episode numbers
+	 */
+	private OfflineExtractor offlineExtractor = null;
+
+	/**
+	 * Resolved lines of previous runs or null, if disabled
+	 */
+	private ResolutionCache resolutionCache = null;
+
+	/**
+	 * State of the incremental scan or null, if disabled
+	 */
+	private ScanState scanState = null;
+
+	/**
+	 * Series resolved before the scan or null, if series are resolved while
+	 * scanning
+	 */
+	private SeriesResolver seriesResolver = null;
+
+	/**
+	 * Substitutions of episode names used for the online search or null
+	 */
+	private SubstitutionEngine episodeNameSubstitutions = null;
+
+	/**
+	 * Amount of extraction workers
+	 */
+	private int extractionThreads = 1;
+
+	/**
+	 * First failure of a stage or null, if all stages are running
+	 */
+	private volatile Throwable failure = null;
+
+	/**
+	 * EPG line passed between the stages together with the result of the
+	 * search
+	 *
+	 * @author Oliver
+	 *
+	 */
+	private static class EpgLine {
+		/**
+		 * Unique ID of the program
+		 */
+		private int programId = 0;
+
+		/**
+		 * Series title in the EPG
+		 */
+		private String title = null;
+
+		/**
+		 * Episode name in the EPG
+		 */
+		private String episodeName = null;
+
+		/**
+		 * Description text in the EPG
+		 */
+		private String description = null;
+
+		/**
+		 * Original air date in the EPG
+		 */
+		private String originalAirDate = null;
+
+		/**
+		 * Season number found or null
+		 */
+		private String seasonNumber = null;
+
+		/**
+		 * Episode number found or null
+		 */
+		private String episodeNumber = null;
+
+		/**
+		 * thetvdb series ID of the line or null, if not searched online
+		 */
+		private String seriesId = null;
+
+		/**
+		 * true, if the numbers have been found in the resolution cache
+		 */
+		private boolean cached = false;
+
+		/**
+		 * true, if the line has been skipped, because it could not be resolved
+		 * recently
+		 */
+		private boolean skipped = false;
+
+		/**
+		 * true, if the line could not be searched online, e.g. because
+		 * thetvdb.com could not be reached. Such lines are scanned again by the
+		 * next incremental scan
+		 */
+		private boolean retry = false;
+
+		/**
+		 * true, if the episode name has been matched fuzzily. Such matches
+		 * depend on the threshold and substitutions and are not cached
+		 */
+		private boolean fuzzy = false;
+
+		/**
+		 * @param programId
+		 *            Unique ID of the program
+		 * @param title
+		 *            Series title in the EPG
+		 * @param episodeName
+		 *            Episode name in the EPG
+		 * @param description
+		 *            Description text in the EPG
+		 * @param originalAirDate
+		 *            Original air date in the EPG
+		 */
+		private EpgLine(int programId, String title, String episodeName, String description, String originalAirDate) {
+			this.programId = programId;
+			this.title = title;
+			this.episodeName = episodeName;
+			this.description = description;
+			this.originalAirDate = originalAirDate;
+		}
+
+		/**
+		 * @return true, if season and episode number have been found
+		 */
+		private boolean isFound() {
+			return seasonNumber != null && episodeNumber != null;
+		}
+	}
+
+	/**
+	 * @param epgWriter
+	 *            Writes the episode numbers found
+	 * @param offlineExtractor
+	 *            Searches the EPG texts for episode numbers
+	 * @param resolutionCache
+	 *            Resolved lines of previous runs or null, if disabled
+	 * @param scanState
+	 *            State of the incremental scan or null, if disabled
+	 * @param seriesResolver
+	 *            Series resolved before the scan or null
+	 * @param episodeNameSubstitutions
+	 *            Substitutions of episode names used for the online search or
+	 *            null
+	 * @param extractionThreads
+	 *            Amount of extraction workers
+	 */
+	public EpgScanPipeline(EpgUpdateWriter epgWriter, OfflineExtractor offlineExtractor, ResolutionCache resolutionCache,
+			ScanState scanState, SeriesResolver seriesResolver, SubstitutionEngine episodeNameSubstitutions, int extractionThreads) {
+		this.epgWriter = epgWriter;
+		this.offlineExtractor = offlineExtractor;
+		this.resolutionCache = resolutionCache;
+		this.scanState = scanState;
+		this.seriesResolver = seriesResolver;
+		this.episodeNameSubstitutions = episodeNameSubstitutions;
+		this.extractionThreads = Math.max(1, extractionThreads);
+	}
+
+	/**
+	 * Reads all lines of the result set and waits until all stages are done
+	 *
+	 * @param rs
+	 *            EPG lines with the columns idProgram, title, episodeName,
+	 *            description and originalAirDate
+	 * @param epgEpisodesSize
+	 *            expected amount of lines used for the progress messages
+	 * @throws Exception
+	 *             Is thrown, if reading the lines or one of the stages fails
+	 */
+	public void run(ResultSet rs, final double epgEpisodesSize) throws Exception {
+		final BlockingQueue<EpgLine> extractionQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		final BlockingQueue<EpgLine> onlineQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		final BlockingQueue<EpgLine> writerQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+		logger.info("Scanning EPG using " + extractionThreads + " extraction threads");
+
+		ExecutorService executor = Executors.newFixedThreadPool(extractionThreads + 2, new ThreadFactory() {
+			private AtomicInteger threadCounter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "EpgScanPipeline-" + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Future<Void>> stages = new ArrayList<>();
+			for (int i = 0; i < extractionThreads; i++) {
+				stages.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						try {
+							extract(extractionQueue, onlineQueue, writerQueue);
+						} catch (Throwable e) {
+							fail(e);
+						}
+						return null;
+					}
+				}));
+			}
+			stages.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					try {
+						resolveOnline(onlineQueue, writerQueue);
+					} catch (Throwable e) {
+						fail(e);
+					}
+					return null;
+				}
+			}));
+			stages.add(executor.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					try {
+						write(writerQueue, epgEpisodesSize);
+					} catch (Throwable e) {
+						fail(e);
+					}
+					return null;
+				}
+			}));
+
+			try {
+				while (rs.next()) {
+					put(extractionQueue, new EpgLine(rs.getInt("idProgram"), rs.getString("title"), rs.getString("episodeName"),
+							rs.getString("description"), rs.getString("originalAirDate")));
+				}
+				for (int i = 0; i < extractionThreads; i++) {
+					put(extractionQueue, END);
+				}
+			} catch (Exception e) {
+				fail(e);
+			}
+			for (Future<Void> stage : stages) {
+				stage.get();
+			}
+		} finally {
+			executor.shutdownNow();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+		if (failure instanceof Exception) {
+			throw (Exception) failure;
+		} else if (failure != null) {
+			throw new Exception(failure);
+		}
+	}
+
+	/**
+	 * Extraction stage: looks up the resolution cache and searches the EPG
+	 * texts. Resolved lines are passed to the writer, the others to the online
+	 * stage
+	 *
+	 * @param extractionQueue
+	 *            lines read from the database
+	 * @param onlineQueue
+	 *            lines to be resolved online
+	 * @param writerQueue
+	 *            lines to be written
+	 * @throws InterruptedException
+	 *             Is thrown, if the stage is aborted
+	 */
+	private void extract(BlockingQueue<EpgLine> extractionQueue, BlockingQueue<EpgLine> onlineQueue, BlockingQueue<EpgLine> writerQueue)
+			throws InterruptedException {
+		Config config = MPEpisodeNumberGenerator.getConfig();
+		EpgLine line;
+		while ((line = take(extractionQueue)) != END) {
+			String title = line.title;
+			String episodeName = line.episodeName;
+			logger.info("Beginning search for " + title + " - " + episodeName);
+
+			// Skip lines that could not be resolved recently
+			if (scanState != null && scanState.hasRecentlyFailed(title, episodeName)) {
+				logger.debug("Incremental-Scan: Skipped '" + title + " - " + episodeName + "' because it could not be resolved recently");
+				line.skipped = true;
+				put(writerQueue, line);
+				continue;
+			}
+
+			if (resolutionCache != null) {
+				Resolution resolution = resolutionCache.get(title, episodeName);
+				if (resolution != null) {
+					logger.info("Cache-Search: Found series and episode number of a previous run: " + resolution.getSeasonNumber() + "x"
+							+ resolution.getEpisodeNumber());
+					line.seasonNumber = resolution.getSeasonNumber();
+					line.episodeNumber = resolution.getEpisodeNumber();
+					line.cached = true;
+					put(writerQueue, line);
+					continue;
+				}
+			}
+
+			if (!config.isOnlineOnlySeries(title)) {
+				// try to get the episode numbers from the epg texts
+				logger.debug("Offline-Search: Trying to parse epg description text to find the series and episode number");
+				EpisodeInformation extracted = offlineExtractor.extract(line.description, episodeName, title);
+				if (extracted != null) {
+					logger.info("Offline-Search: Found series and episode number in description text: " + extracted.getSeasonNumber() + "x"
+							+ extracted.getEpisodeNumber());
+					line.seasonNumber = extracted.getSeasonNumber();
+					line.episodeNumber = extracted.getEpisodeNumber();
+					put(writerQueue, line);
+					continue;
+				}
+				logger.debug("Offline-Search: Found no season and episode number for series '" + title + "' and episode '" + episodeName + "'");
+			} else {
+				logger.warn("Skipped Offline-Search for '" + title + "' because it is marked as online only in the config");
+			}
+
+			if (config.isOffline()) {
+				put(writerQueue, line);
+			} else if (config.isOfflineOnlySeries(title)) {
+				logger.warn("Skipped Online-Search for '" + title + "' because it is marked as offline only in the config");
+				put(writerQueue, line);
+			} else {
+				put(onlineQueue, line);
+			}
+		}
+		put(onlineQueue, END);
+	}
+
+	/**
+	 * Online stage: resolves the lines using one {@link TheTvDbController} per
+	 * series title
+	 *
+	 * @param onlineQueue
+	 *            lines to be resolved online
+	 * @param writerQueue
+	 *            lines to be written
+	 * @throws Exception
+	 *             Is thrown, if the stage is aborted or thetvdb.com cannot be
+	 *             read
+	 */
+	private void resolveOnline(BlockingQueue<EpgLine> onlineQueue, BlockingQueue<EpgLine> writerQueue) throws Exception {
+		Map<String, TheTvDbController> controllers = new LinkedHashMap<String, TheTvDbController>(MAX_CONTROLLERS, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, TheTvDbController> eldest) {
+				return size() > MAX_CONTROLLERS;
+			}
+		};
+		double fuzzyMatchThreshold = MPEpisodeNumberGenerator.getConfig().getFuzzyMatchThreshold();
+		NegativeSeriesCache negativeCache = NegativeSeriesCache.getInstance();
+		// the extraction workers pass on the lines of a title interleaved with
+		// other titles, so the lines are only counted for the whole stage
+		int epgCounter = 0;
+		int mappedCounter = 0;
+		int runningWorkers = extractionThreads;
+		while (runningWorkers > 0) {
+			EpgLine line = take(onlineQueue);
+			if (line == END) {
+				runningWorkers--;
+				continue;
+			}
+			String episodeName = line.episodeName;
+
+			// Change query if substitutions exists
+			if (episodeNameSubstitutions != null && episodeName != null) {
+				String substitute = episodeNameSubstitutions.get(episodeName);
+				if (substitute != null) {
+					logger.debug("Online-Search: Substitution '" + substitute + "' found for episode name '" + episodeName + "'");
+					episodeName = substitute;
+				}
+			}
+
+			epgCounter++;
+
+			// Create TheTvDbController object per series title
+			String key = CaseFolding.fold(line.title);
+			TheTvDbController tvdb = controllers.get(key);
+			if (tvdb == null) {
+				logger.info("Online-Search: Processing new series " + line.title);
+				tvdb = seriesResolver != null ? seriesResolver.get(line.title) : null;
+				if (tvdb == null) {
+					String airYear = line.originalAirDate != null ? line.originalAirDate.substring(0, 4) : null;
+					// Lines of series thetvdb had no series for recently are
+					// passed on unresolved without searching again
+					if (negativeCache.isUnresolvable(TheTvDbController.getQuerySeriesName(line.title), airYear)) {
+						logger.debug("Online-Search: Skipping ProgramId='" + line.programId + "', thetvdb had no series for '" + line.title + "'");
+						put(writerQueue, line);
+						continue;
+					}
+					tvdb = new TheTvDbController(line.title, airYear);
+				}
+				controllers.put(key, tvdb);
+			}
+			line.seriesId = tvdb.getSeriesId();
+			line.retry = !tvdb.isSearchCompleted();
+
+			EpisodeIndex episodeIndex = tvdb.getEpisodeIndex();
+			if (episodeIndex != null) {
+				EpisodeInformation episodeInfo = episodeIndex.get(episodeName);
+				if (episodeInfo == null && tvdb.refetchPatchedSeries(line.originalAirDate)) {
+					// The episode may have been added on thetvdb after the
+					// patched series had been fetched
+					episodeIndex = tvdb.getEpisodeIndex();
+					episodeInfo = episodeIndex.get(episodeName);
+				}
+				if (episodeInfo == null && fuzzyMatchThreshold > 0) {
+					episodeInfo = episodeIndex.getSimilar(episodeName, fuzzyMatchThreshold);
+					if (episodeInfo != null) {
+						line.fuzzy = true;
+						logger.info("Online-Search: Matched episode name '" + episodeName + "' fuzzily to '" + episodeInfo.getEpisodeName() + "'");
+					}
+				}
+				if (episodeInfo != null) {
+					mappedCounter++;
+					logger.info("Online-Search: Mapped episode number successfully: " + episodeInfo.getSeasonNumber() + "x"
+							+ episodeInfo.getEpisodeNumber() + " - " + episodeInfo.getEpisodeName() + " - ProgramId='" + line.programId + "'");
+					line.seasonNumber = episodeInfo.getSeasonNumber();
+					line.episodeNumber = episodeInfo.getEpisodeNumber();
+				}
+			} else {
+				logger.warn("Online-Search: Could not fetch series data for: " + tvdb);
+				if (line.seriesId != null) {
+					// the series has been found, but its episodes could not
+					// be fetched
+					line.retry = true;
+				}
+			}
+			put(writerQueue, line);
+		}
+		logger.info("Online-Search: Mapped " + mappedCounter + " of " + epgCounter + " episodes searched online.");
+		put(writerQueue, END);
+	}
+
+	/**
+	 * Writer stage: writes the episode numbers found and remembers the results
+	 * in the resolution cache and scan state
+	 *
+	 * @param writerQueue
+	 *            lines to be written
+	 * @param epgEpisodesSize
+	 *            expected amount of lines used for the progress messages
+	 * @throws Exception
+	 *             Is thrown, if the stage is aborted or the database cannot be
+	 *             updated
+	 */
+	private void write(BlockingQueue<EpgLine> writerQueue, double epgEpisodesSize) throws Exception {
+		Date beginningDate = new Date();
+		long beginningDateLong = beginningDate.getTime();
+		SimpleDateFormat sdf = new SimpleDateFormat("HH:mm:ss");
+		int lineCounter = 0;
+		EpgLine line;
+		while ((line = take(writerQueue)) != END) {
+			lineCounter++;
+			if (line.isFound()) {
+				epgWriter.update(line.programId, line.seasonNumber, line.episodeNumber);
+				if (resolutionCache != null && !line.cached && !line.fuzzy) {
+					resolutionCache.put(line.title, line.episodeName, line.seasonNumber, line.episodeNumber, line.seriesId);
+				}
+			}
+
+			// Remember the result for the next incremental scan
+			if (scanState != null) {
+				scanState.updateHighWaterMark(line.programId);
+				if (line.isFound()) {
+					scanState.removeFailedLine(line.title, line.episodeName);
+				} else if (line.retry) {
+					// the high-water mark passes the line, so its title is
+					// selected explicitly by the next run
+					scanState.addPendingTitle(line.title);
+				} else if (!line.skipped) {
+					// only lines thetvdb.com has been searched for are failed
+					scanState.addFailedLine(line.title, line.episodeName, line.seriesId);
+				}
+			}
+
+			// Print statistics
+			if (lineCounter % 100 == 0) {
+				logger.info((lineCounter / epgEpisodesSize) * 100 + " % processed...");
+				double currentRunTime = new Date().getTime() - beginningDateLong;
+				double timeEstimation = (currentRunTime / lineCounter) * epgEpisodesSize - currentRunTime;
+				double timeEstimationMinutes = timeEstimation / 1000 / 60;
+				logger.warn("Scan runs since " + sdf.format(beginningDate) + " and will be ready in " + timeEstimationMinutes + " minutes");
+			} else if (lineCounter == epgEpisodesSize) {
+				logger.info((lineCounter / epgEpisodesSize) * 100 + " % processed...");
+				Date endDate = new Date();
+				double diffTime = endDate.getTime() - beginningDateLong;
+				double runTime = diffTime / 1000 / 60;
+				logger.warn("Scan started " + sdf.format(beginningDate) + ", ended " + sdf.format(endDate) + " and took " + runTime + " minutes");
+			}
+		}
+	}
+
+	/**
+	 * Remembers the first failure of a stage, so all other stages abort
+	 *
+	 * @param e
+	 *            failure of a stage
+	 */
+	private synchronized void fail(Throwable e) {
+		if (failure == null) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Puts a line into a queue and waits for free space
+	 *
+	 * @param queue
+	 *            target queue
+	 * @param line
+	 *            line to be queued
+	 * @throws InterruptedException
+	 *             Is thrown, if another stage failed or the thread is
+	 *             interrupted
+	 */
+	private void put(BlockingQueue<EpgLine> queue, EpgLine line) throws InterruptedException {
+		while (!queue.offer(line, QUEUE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+			checkFailure();
+		}
+	}
+
+	/**
+	 * Takes the next line of a queue and waits until there is one
+	 *
+	 * @param queue
+	 *            source queue
+	 * @return next line
+	 * @throws InterruptedException
+	 *             Is thrown, if another stage failed or the thread is
+	 *             interrupted
+	 */
+	private EpgLine take(BlockingQueue<EpgLine> queue) throws InterruptedException {
+		EpgLine line;
+		while ((line = queue.poll(QUEUE_TIMEOUT, TimeUnit.MILLISECONDS)) == null) {
+			checkFailure();
+		}
+		return line;
+	}
+
+	/**
+	 * @throws InterruptedException
+	 *             Is thrown, if a stage failed
+	 */
+	private void checkFailure() throws InterruptedException {
+		if (failure != null) {
+			throw new InterruptedException("Aborted because another stage failed");
+		}
+	}
+}
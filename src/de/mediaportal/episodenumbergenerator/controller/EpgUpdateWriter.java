@@ -0,0 +1,523 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Writes season and episode numbers to MediaPortal's program table using one
+ * reusable {@link PreparedStatement}. Updates are collected, sent to the
+ * database with {@link PreparedStatement#executeBatch()} when the batch size is
+ * reached and committed in chunks of the configured commit size. The writer
+ * has to be closed to write and commit the remaining updates.
+ * <p>
+ * The writer uses its own connection of the {@link ConnectionPool}. If writing
+ * or committing fails due to a transient error (e.g. a lost connection or a
+ * deadlock), the connection is replaced and all uncommitted updates are
+ * written again. This is safe since the updates only set fixed values.
+ * <p>
+ * Subclasses may write the updates differently by overriding
+ * {@link #prepare()}, {@link #write(List)}, {@link #apply()} and
+ * {@link #closeStatements()}.
+ *
+ * @author Oliver
+ *
+ */
+public class EpgUpdateWriter {
+	/**
+	 * Logger of the class {@link EpgUpdateWriter}
+	 */
+	private static Logger logger = LogManager.getLogger(EpgUpdateWriter.class);
+
+	/**
+	 * Delay before the first retry after a transient error (ms). The delay
+	 * grows with every further retry
+	 */
+	private static final long RETRY_DELAY = 1000;
+
+	/**
+	 * MySQL error code of a lock wait timeout which is reported without a
+	 * transient SQL state
+	 */
+	private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+
+	/**
+	 * Pool providing the connection
+	 */
+	private ConnectionPool pool = null;
+
+	/**
+	 * Connection the updates are written to
+	 */
+	protected Connection connection = null;
+
+	/**
+	 * Reused update statement
+	 */
+	protected PreparedStatement statement = null;
+
+	/**
+	 * Auto commit mode of the connection before the writer was created
+	 */
+	private boolean autoCommit = true;
+
+	/**
+	 * Amount of updates sent to the database in one batch
+	 */
+	protected int batchSize = 1;
+
+	/**
+	 * Amount of updates committed in one transaction
+	 */
+	protected int commitSize = 1;
+
+	/**
+	 * Amount of retries after transient errors
+	 */
+	private int retries = 0;
+
+	/**
+	 * Updates added or written but not committed yet. They are written again
+	 * after a transient error
+	 */
+	private List<Update> uncommittedUpdates = new ArrayList<>();
+
+	/**
+	 * Amount of uncommitted updates already sent to the database
+	 */
+	private int writtenUpdates = 0;
+
+	/**
+	 * Amount of updates committed by this writer
+	 */
+	private int committedUpdates = 0;
+
+	/**
+	 * Task the first write waits for, e.g. the backup of the database, or
+	 * null
+	 */
+	private Future<?> writeGate = null;
+
+	/**
+	 * Flag if the connection has been taken from the pool
+	 */
+	private boolean opened = false;
+
+	/**
+	 * Flag if the writer has been closed
+	 */
+	private boolean closed = false;
+
+	/**
+	 * Creates a writer using a connection of the pool. The connection is taken
+	 * when the first batch is written and stays in manual commit mode until
+	 * the writer is closed.
+	 *
+	 * @param pool
+	 *            pool of connections to MediaPortal's database
+	 * @param batchSize
+	 *            amount of updates sent to the database in one batch
+	 * @param commitSize
+	 *            amount of updates committed in one transaction
+	 * @param retries
+	 *            amount of retries after transient errors
+	 */
+	public EpgUpdateWriter(ConnectionPool pool, int batchSize, int commitSize, int retries) {
+		this.pool = pool;
+		this.batchSize = Math.max(1, batchSize);
+		this.commitSize = Math.max(this.batchSize, commitSize);
+		this.retries = Math.max(0, retries);
+	}
+
+	/**
+	 * Prepares the statements on a new connection
+	 *
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	protected void prepare() throws SQLException {
+		statement = connection.prepareStatement(DatabaseConnection.SQL_UPDATE_EPISODE_AND_SERIES_NUMBER);
+	}
+
+	/**
+	 * Sends updates to the database
+	 *
+	 * @param updates
+	 *            at most {@link #batchSize} updates
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	protected void write(List<Update> updates) throws SQLException {
+		for (Update update : updates) {
+			statement.setString(1, update.getSeriesNumber());
+			statement.setString(2, update.getEpisodeNumber());
+			statement.setInt(3, update.getProgramId());
+			statement.addBatch();
+		}
+		statement.executeBatch();
+	}
+
+	/**
+	 * Applies all updates written since the last commit before the
+	 * transaction is committed. The updates of this writer are already
+	 * applied by {@link #write(List)}
+	 *
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	protected void apply() throws SQLException {
+		// nothing to do
+	}
+
+	/**
+	 * Closes the statements of the current connection
+	 *
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	protected void closeStatements() throws SQLException {
+		if (statement != null) {
+			statement.close();
+			statement = null;
+		}
+	}
+
+	/**
+	 * Gets a connection of the pool and prepares the statements
+	 *
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	private void open() throws SQLException {
+		connection = pool.getConnection();
+		opened = true;
+		try {
+			autoCommit = connection.getAutoCommit();
+			connection.setAutoCommit(false);
+			prepare();
+		} catch (SQLException e) {
+			discard();
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds an update of one line in MediaPortal's program table
+	 *
+	 * @param programId
+	 *            Unique ID of the program to be updated
+	 * @param seriesNumber
+	 *            Series Number
+	 * @param episodeNumber
+	 *            Episode Number
+	 * @throws SQLException
+	 *             if a database access error occurs while the batch is written
+	 */
+	public void update(int programId, String seriesNumber, String episodeNumber) throws SQLException {
+		uncommittedUpdates.add(new Update(programId, seriesNumber, episodeNumber));
+		if (uncommittedUpdates.size() - writtenUpdates >= batchSize) {
+			flush();
+		}
+	}
+
+	/**
+	 * Sends the current batch to the database and commits, if the commit size
+	 * has been reached
+	 *
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public void flush() throws SQLException {
+		writePending();
+		if (uncommittedUpdates.size() >= commitSize) {
+			commit();
+		}
+	}
+
+	/**
+	 * Sends the current batch to the database and commits all updates
+	 *
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public void commit() throws SQLException {
+		writePending();
+		if (!uncommittedUpdates.isEmpty()) {
+			try {
+				apply();
+				connection.commit();
+			} catch (SQLException e) {
+				recover(e, true);
+			}
+			committedUpdates += uncommittedUpdates.size();
+			logger.debug("Committed " + uncommittedUpdates.size() + " EPG updates (" + committedUpdates + " in total)");
+			uncommittedUpdates.clear();
+			writtenUpdates = 0;
+		}
+	}
+
+	/**
+	 * Commits all remaining updates, closes the statements and returns the
+	 * connection to the pool
+	 *
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	public void close() throws SQLException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			commit();
+		} finally {
+			if (opened) {
+				opened = false;
+				try {
+					closeStatements();
+					connection.setAutoCommit(autoCommit);
+				} finally {
+					connection.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lets the first write wait for a task running in the background. If the
+	 * task fails, all writes fail
+	 *
+	 * @param writeGate
+	 *            task the first write waits for, e.g. the backup of the
+	 *            database
+	 */
+	public void setWriteGate(Future<?> writeGate) {
+		this.writeGate = writeGate;
+	}
+
+	/**
+	 * @return Amount of updates committed by this writer
+	 */
+	public int getCommittedUpdates() {
+		return committedUpdates;
+	}
+
+	/**
+	 * Sends the updates added since the last batch to the database
+	 *
+	 * @throws SQLException
+	 *             if a database access error occurs
+	 */
+	private void writePending() throws SQLException {
+		if (writtenUpdates < uncommittedUpdates.size()) {
+			awaitWriteGate();
+			try {
+				if (!opened) {
+					open();
+				}
+				write(uncommittedUpdates.subList(writtenUpdates, uncommittedUpdates.size()));
+				writtenUpdates = uncommittedUpdates.size();
+			} catch (SQLException e) {
+				recover(e, false);
+			}
+		}
+	}
+
+	/**
+	 * Waits for the task gating the first write
+	 *
+	 * @throws SQLException
+	 *             if the task failed or the thread is interrupted while
+	 *             waiting
+	 */
+	private void awaitWriteGate() throws SQLException {
+		if (writeGate == null) {
+			return;
+		}
+		if (!writeGate.isDone()) {
+			logger.info("Waiting for the backup before writing the first EPG updates");
+		}
+		try {
+			writeGate.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for the backup", e);
+		} catch (ExecutionException e) {
+			throw new SQLException("EPG updates aborted since the backup failed (" + e.getCause().getMessage() + ")", e.getCause());
+		}
+		writeGate = null;
+	}
+
+	/**
+	 * Replaces the connection after a transient error and writes all
+	 * uncommitted updates again until it succeeds or the retries are used up
+	 *
+	 * @param cause
+	 *            error that occurred
+	 * @param commit
+	 *            true, if the updates have to be committed after writing them
+	 * @throws SQLException
+	 *             the last error, if it is not transient or the retries are
+	 *             used up
+	 */
+	private void recover(SQLException cause, boolean commit) throws SQLException {
+		int attempt = 0;
+		while (true) {
+			if (!isTransient(cause) || ++attempt > retries) {
+				throw cause;
+			}
+			logger.warn("Transient database error (" + cause.getMessage() + "), writing " + uncommittedUpdates.size()
+					+ " uncommitted EPG updates again on a new connection (retry " + attempt + " of " + retries + ")");
+			discard();
+			try {
+				Thread.sleep(RETRY_DELAY * attempt);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw cause;
+			}
+			try {
+				open();
+				for (int i = 0; i < uncommittedUpdates.size(); i += batchSize) {
+					write(uncommittedUpdates.subList(i, Math.min(i + batchSize, uncommittedUpdates.size())));
+				}
+				writtenUpdates = uncommittedUpdates.size();
+				if (commit) {
+					apply();
+					connection.commit();
+				}
+				return;
+			} catch (SQLException e) {
+				cause = e;
+			}
+		}
+	}
+
+	/**
+	 * Rolls back and returns the current connection ignoring all errors. A
+	 * broken connection is replaced by the pool when it is requested again
+	 */
+	private void discard() {
+		if (!opened) {
+			return;
+		}
+		opened = false;
+		try {
+			connection.rollback();
+		} catch (SQLException e) {
+			// ignore
+		}
+		try {
+			closeStatements();
+		} catch (SQLException e) {
+			// ignore
+		}
+		try {
+			connection.setAutoCommit(autoCommit);
+		} catch (SQLException e) {
+			// ignore
+		}
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * @param e
+	 *            error of the database
+	 * @return true, if the error or one of its causes is transient, so the
+	 *         operation may succeed on a new connection
+	 */
+	static boolean isTransient(SQLException e) {
+		Throwable cause = e;
+		while (cause != null) {
+			if (cause instanceof SQLTransientException || cause instanceof SQLRecoverableException) {
+				return true;
+			}
+			if (cause instanceof SQLException) {
+				SQLException sqlException = (SQLException) cause;
+				String sqlState = sqlException.getSQLState();
+				// 08: connection exception, 40: transaction rollback (deadlock)
+				if (sqlState != null && (sqlState.startsWith("08") || sqlState.startsWith("40"))) {
+					return true;
+				}
+				if (sqlException.getErrorCode() == MYSQL_LOCK_WAIT_TIMEOUT) {
+					return true;
+				}
+				if (sqlException.getNextException() != null && isTransient(sqlException.getNextException())) {
+					return true;
+				}
+			}
+			cause = cause.getCause() == cause ? null : cause.getCause();
+		}
+		return false;
+	}
+
+	/**
+	 * Update of one line in MediaPortal's program table
+	 *
+	 * @author Oliver
+	 *
+	 */
+	protected static class Update {
+		/**
+		 * Unique ID of the program to be updated
+		 */
+		private int programId;
+
+		/**
+		 * Series Number
+		 */
+		private String seriesNumber;
+
+		/**
+		 * Episode Number
+		 */
+		private String episodeNumber;
+
+		/**
+		 * @param programId
+		 *            Unique ID of the program to be updated
+		 * @param seriesNumber
+		 *            Series Number
+		 * @param episodeNumber
+		 *            Episode Number
+		 */
+		private Update(int programId, String seriesNumber, String episodeNumber) {
+			this.programId = programId;
+			this.seriesNumber = seriesNumber;
+			this.episodeNumber = episodeNumber;
+		}
+
+		/**
+		 * @return Unique ID of the program to be updated
+		 */
+		public int getProgramId() {
+			return programId;
+		}
+
+		/**
+		 * @return Series Number
+		 */
+		public String getSeriesNumber() {
+			return seriesNumber;
+		}
+
+		/**
+		 * @return Episode Number
+		 */
+		public String getEpisodeNumber() {
+			return episodeNumber;
+		}
+	}
+}
@@ -0,0 +1,352 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.mediaportal.episodenumbergenerator.MPEpisodeNumberGenerator;
+
+/**
+ * Persistent cache of series titles thetvdb.com has no matching series for,
+ * e.g. talk shows, news or sports. A title is only remembered after the search
+ * result of thetvdb.com has been parsed successfully and no series matched, so
+ * network errors never end up in the cache. Entries are keyed by the
+ * normalized series title and the air year, because the air year is used to
+ * choose between several series of the same name, and expire after the
+ * configured time to live. The title is the one searched on thetvdb.com after
+ * the <code>seriesname</code> substitution, so a substitution added for an
+ * unknown title is searched right away.
+ *
+ * @author Oliver
+ *
+ */
+public class NegativeSeriesCache {
+	/**
+	 * Filename of the negative cache ({@value #FILENAME_NEGATIVE_CACHE})
+	 */
+	public final static String FILENAME_NEGATIVE_CACHE = "negativeseries.txt";
+
+	/**
+	 * First line of the cache file containing the format version
+	 */
+	private final static String HEADER = "#MPEpisodeNumberGenerator negative series cache v1";
+
+	/**
+	 * Logger of the class {@link NegativeSeriesCache}
+	 */
+	private static Logger logger = LogManager.getLogger(NegativeSeriesCache.class);
+
+	/**
+	 * Instance shared by the main loop and all {@link TheTvDbController}s
+	 */
+	private static NegativeSeriesCache instance = null;
+
+	/**
+	 * File the cache is persisted to
+	 */
+	private File cacheFile = null;
+
+	/**
+	 * Time to live of an entry (ms) or 0, if the cache is disabled
+	 */
+	private long ttl = 0;
+
+	/**
+	 * Flag if the cache has been changed since it has been loaded
+	 */
+	private boolean dirty = false;
+
+	/**
+	 * Unresolvable series by their key
+	 */
+	private Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+	/**
+	 * Series title thetvdb.com has no matching series for
+	 *
+	 * @author Oliver
+	 *
+	 */
+	public static class Entry {
+		/**
+		 * Series title as searched on thetvdb.com
+		 */
+		private String title = null;
+
+		/**
+		 * Air year used to resolve the series or an empty string
+		 */
+		private String airYear = null;
+
+		/**
+		 * Time when thetvdb.com had no series for the title (time since Epoch
+		 * in ms)
+		 */
+		private long recordedAt = 0;
+
+		/**
+		 * @param title
+		 *            Series title as searched on thetvdb.com
+		 * @param airYear
+		 *            Air year used to resolve the series or an empty string
+		 * @param recordedAt
+		 *            Time when thetvdb.com had no series for the title (time
+		 *            since Epoch in ms)
+		 */
+		public Entry(String title, String airYear, long recordedAt) {
+			this.title = title;
+			this.airYear = airYear;
+			this.recordedAt = recordedAt;
+		}
+
+		/**
+		 * @return Series title as searched on thetvdb.com
+		 */
+		public String getTitle() {
+			return title;
+		}
+
+		/**
+		 * @return Air year used to resolve the series or an empty string
+		 */
+		public String getAirYear() {
+			return airYear;
+		}
+
+		/**
+		 * @return Time when thetvdb.com had no series for the title (time since
+		 *         Epoch in ms)
+		 */
+		public long getRecordedAt() {
+			return recordedAt;
+		}
+	}
+
+	/**
+	 * @return cache of the cache directory, loaded on first use with the time
+	 *         to live of the {@link MPEpisodeNumberGenerator}'s config
+	 */
+	public synchronized static NegativeSeriesCache getInstance() {
+		if (instance == null) {
+			instance = new NegativeSeriesCache(new File(TheTvDbController.PATH_CACHE + FILENAME_NEGATIVE_CACHE),
+					MPEpisodeNumberGenerator.getConfig().getNegativeCacheTtlDays());
+		}
+		return instance;
+	}
+
+	/**
+	 * Saves the cache, if it has been used and changed
+	 *
+	 * @throws IOException
+	 *             Is thrown, if the cache cannot be written
+	 */
+	public synchronized static void saveInstance() throws IOException {
+		if (instance != null) {
+			instance.save();
+		}
+	}
+
+	/**
+	 * Creates the cache and reads the persisted entries that have not expired,
+	 * if the cache file exists
+	 *
+	 * @param cacheFile
+	 *            File the cache is persisted to
+	 * @param ttlDays
+	 *            Days an entry is kept or 0 to disable the cache
+	 */
+	public NegativeSeriesCache(File cacheFile, int ttlDays) {
+		this.cacheFile = cacheFile;
+		this.ttl = TimeUnit.DAYS.toMillis(Math.max(0, ttlDays));
+		if (cacheFile.exists()) {
+			try {
+				load();
+				logger.info("Loaded " + entries.size() + " series titles without thetvdb series from " + cacheFile.getName());
+			} catch (IOException e) {
+				logger.warn("Could not read negative series cache " + cacheFile.getName() + ". Starting with an empty cache (" + e.getMessage()
+						+ ")");
+				entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * @param title
+	 *            series title as searched on thetvdb.com
+	 * @param airYear
+	 *            air year used to resolve the series or null
+	 * @return true, if thetvdb.com had no series for the title recently
+	 */
+	public boolean isUnresolvable(String title, String airYear) {
+		if (ttl == 0 || title == null) {
+			return false;
+		}
+		Entry entry = entries.get(key(title, airYear));
+		return entry != null && !isExpired(entry);
+	}
+
+	/**
+	 * Remembers a series title thetvdb.com has no matching series for
+	 *
+	 * @param title
+	 *            series title as searched on thetvdb.com
+	 * @param airYear
+	 *            air year used to resolve the series or null
+	 */
+	public void put(String title, String airYear) {
+		if (ttl > 0 && title != null && !title.trim().isEmpty()) {
+			entries.put(key(title, airYear), new Entry(ResolutionCache.clean(title.trim()), clean(airYear), System.currentTimeMillis()));
+			dirty = true;
+		}
+	}
+
+	/**
+	 * @return entries that have not expired ordered by title and air year
+	 */
+	public List<Entry> getEntries() {
+		List<Entry> validEntries = new ArrayList<>();
+		for (Entry entry : entries.values()) {
+			if (!isExpired(entry)) {
+				validEntries.add(entry);
+			}
+		}
+		Collections.sort(validEntries, new Comparator<Entry>() {
+
+			@Override
+			public int compare(Entry o1, Entry o2) {
+				int compared = o1.title.compareToIgnoreCase(o2.title);
+				return compared != 0 ? compared : o1.airYear.compareTo(o2.airYear);
+			}
+		});
+		return validEntries;
+	}
+
+	/**
+	 * Removes all entries, so all series titles are searched again
+	 *
+	 * @return amount of removed entries
+	 */
+	public int clear() {
+		int removed = entries.size();
+		entries.clear();
+		dirty = true;
+		return removed;
+	}
+
+	/**
+	 * @return amount of cached entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Reads the cache file and skips expired entries
+	 *
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be read or has an unknown
+	 *             format
+	 */
+	private void load() throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8))) {
+			String line = reader.readLine();
+			if (!HEADER.equals(line)) {
+				throw new IOException("Unknown format");
+			}
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length == 3) {
+					Entry entry = new Entry(fields[0], fields[1], Long.parseLong(fields[2]));
+					if (isExpired(entry)) {
+						dirty = true;
+					} else {
+						entries.put(key(entry.title, entry.airYear), entry);
+					}
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid timestamp", e);
+		}
+	}
+
+	/**
+	 * Persists the cache, if it has been changed. The file is written to a
+	 * temporary file first and moved to the cache afterwards
+	 *
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be written
+	 */
+	public synchronized void save() throws IOException {
+		if (!dirty) {
+			return;
+		}
+		int savedEntries = 0;
+		File tempFile = CacheFiles.createTempFile(cacheFile);
+		try {
+			try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+				writer.write(HEADER);
+				writer.newLine();
+				for (Entry entry : entries.values()) {
+					if (!isExpired(entry)) {
+						writer.write(entry.title + "\t" + entry.airYear + "\t" + entry.recordedAt);
+						writer.newLine();
+						savedEntries++;
+					}
+				}
+			}
+			CacheFiles.replace(tempFile, cacheFile);
+			dirty = false;
+			logger.info("Saved " + savedEntries + " series titles without thetvdb series to " + cacheFile.getName());
+		} finally {
+			if (tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * @param entry
+	 *            cached entry
+	 * @return true, if the entry is older than the time to live
+	 */
+	private boolean isExpired(Entry entry) {
+		return entry.recordedAt < System.currentTimeMillis() - ttl;
+	}
+
+	/**
+	 * @param title
+	 *            series title as searched on thetvdb.com
+	 * @param airYear
+	 *            air year used to resolve the series or null
+	 * @return normalized key of the series
+	 */
+	private static String key(String title, String airYear) {
+		return ResolutionCache.normalize(title) + "\t" + clean(airYear);
+	}
+
+	/**
+	 * @param airYear
+	 *            air year used to resolve the series or null
+	 * @return air year without surrounding whitespace or an empty string for
+	 *         null
+	 */
+	private static String clean(String airYear) {
+		return airYear == null ? "" : ResolutionCache.clean(airYear.trim());
+	}
+}
@@ -0,0 +1,477 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeInformation;
+
+/**
+ * Extracts season and episode numbers from EPG texts using the ordered rules
+ * defined in settings.properties fields <code>epgdescriptionpattern</code> and
+ * <code>epgdescriptionpattern.&lt;n&gt;</code>. The rules are combined into one
+ * pattern that is compiled once. Season and episode number are read from the
+ * named groups <code>season</code> and <code>episode</code>. Patterns without
+ * these groups are converted: the first number of the pattern becomes the
+ * episode and the second one the season, which matches the order of the
+ * default pattern. If every rule starts with literal text, the text is searched
+ * for these literals before the regular expression runs, so most texts are
+ * rejected without running the regex engine.
+ * <p>
+ * Rules with back references like <code>\1</code> or
+ * <code>\k&lt;season&gt;</code> are kept out of the combined pattern and
+ * matched on their own, because the groups added to combine the rules would
+ * change the groups the references point to.
+ *
+ * @author Oliver
+ *
+ */
+public class OfflineExtractor {
+	/**
+	 * Name of the capture group containing the season number
+	 */
+	public static final String GROUP_SEASON = "season";
+
+	/**
+	 * Name of the capture group containing the episode number
+	 */
+	public static final String GROUP_EPISODE = "episode";
+
+	/**
+	 * Regular Expression for a number
+	 */
+	private static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+");
+
+	/**
+	 * Prefix of the group wrapping each rule in the combined pattern
+	 */
+	private static final String GROUP_RULE = "rule";
+
+	/**
+	 * Combined pattern of all rules without back references or null, if there
+	 * are no such rules
+	 */
+	private Pattern pattern = null;
+
+	/**
+	 * Indexes of the rules in the combined pattern in their order
+	 */
+	private int[] combinedRules = null;
+
+	/**
+	 * Per rule the pattern of a rule with back references or null, if the rule
+	 * is part of the combined pattern
+	 */
+	private Pattern[] separatePatterns = null;
+
+	/**
+	 * Per rule true, if the rule contains the groups {@value #GROUP_SEASON}
+	 * and {@value #GROUP_EPISODE}. Otherwise the numbers are read from the
+	 * first two sentences of the match like in previous versions
+	 */
+	private boolean[] hasGroups = null;
+
+	/**
+	 * Literal texts the rules of the combined pattern start with or null, if at
+	 * least one of them does not start with literal text
+	 */
+	private String[] literalPrefixes = null;
+
+	/**
+	 * @param epgPattern
+	 *            pattern as defined in settings.properties field
+	 *            <code>epgdescriptionpattern</code>
+	 */
+	public OfflineExtractor(String epgPattern) {
+		this(Collections.singletonList(epgPattern));
+	}
+
+	/**
+	 * Creates an extractor that combines all rules without back references
+	 * into a single alternation, so every text is scanned once regardless of
+	 * the amount of rules. Rules are matched in the given order: if several
+	 * rules match, the earliest rule wins
+	 *
+	 * @param epgPatterns
+	 *            ordered rules as defined in settings.properties fields
+	 *            <code>epgdescriptionpattern</code> and
+	 *            <code>epgdescriptionpattern.&lt;n&gt;</code>
+	 */
+	public OfflineExtractor(List<String> epgPatterns) {
+		this.hasGroups = new boolean[epgPatterns.size()];
+		this.separatePatterns = new Pattern[epgPatterns.size()];
+		List<Integer> combinedRuleList = new ArrayList<>();
+		List<String> prefixes = new ArrayList<>();
+		StringBuilder combined = new StringBuilder();
+		StringBuilder firstCharacters = new StringBuilder();
+		for (int rule = 0; rule < epgPatterns.size(); rule++) {
+			String epgPattern = epgPatterns.get(rule);
+			if (hasBackReference(epgPattern)) {
+				// added groups would shift the numbered groups as well, so
+				// patterns without named groups read the sentences
+				hasGroups[rule] = hasGroups(epgPattern);
+				separatePatterns[rule] = Pattern.compile(epgPattern);
+				continue;
+			}
+			combinedRuleList.add(rule);
+			String groupPattern = hasGroups(epgPattern) ? epgPattern : addGroups(epgPattern);
+			hasGroups[rule] = hasGroups(groupPattern);
+			if (hasGroups[rule]) {
+				// group names have to be unique within the combined pattern
+				groupPattern = groupPattern.replace("(?<" + GROUP_SEASON + ">", "(?<" + GROUP_SEASON + rule + ">")
+						.replace("(?<" + GROUP_EPISODE + ">", "(?<" + GROUP_EPISODE + rule + ">");
+			} else {
+				groupPattern = epgPattern;
+			}
+			if (combined.length() > 0) {
+				combined.append('|');
+			}
+			combined.append("(?<").append(GROUP_RULE).append(rule).append('>').append(groupPattern).append(')');
+
+			String prefix = getLiteralPrefix(epgPattern);
+			if (prefixes != null && prefix != null) {
+				prefixes.add(prefix);
+			} else {
+				prefixes = null;
+			}
+			String wordPrefix = epgPattern.startsWith("\\b") ? getLiteralPrefix(epgPattern.substring(2)) : prefix;
+			if (firstCharacters != null && wordPrefix != null) {
+				char firstCharacter = wordPrefix.charAt(0);
+				if (!Character.isLetterOrDigit(firstCharacter)) {
+					firstCharacters.append('\\');
+				}
+				firstCharacters.append(firstCharacter);
+			} else {
+				firstCharacters = null;
+			}
+		}
+		if (firstCharacters != null && !combinedRuleList.isEmpty()) {
+			// the alternation prevents the literal search of the regex engine,
+			// so positions that cannot start any rule are rejected by a single
+			// character check
+			combined.insert(0, "(?=[" + firstCharacters + "])(?:").append(')');
+		}
+		this.pattern = combinedRuleList.isEmpty() ? null : Pattern.compile(combined.toString());
+		this.combinedRules = new int[combinedRuleList.size()];
+		for (int i = 0; i < combinedRules.length; i++) {
+			combinedRules[i] = combinedRuleList.get(i);
+		}
+		this.literalPrefixes = prefixes == null ? null : prefixes.toArray(new String[prefixes.size()]);
+	}
+
+	/**
+	 * @param description
+	 *            EPG description text
+	 * @return season and episode number or null, if the description does not
+	 *         contain them
+	 */
+	public EpisodeInformation extract(String description) {
+		if (description == null) {
+			return null;
+		}
+		return extractFromText(description, description.length());
+	}
+
+	/**
+	 * Searches description, episode name and title of an EPG line in a single
+	 * scan. Rules without the named groups only match in the description,
+	 * because the sentences following their match must not be continued by
+	 * the episode name or title
+	 *
+	 * @param description
+	 *            EPG description text
+	 * @param episodeName
+	 *            episode name in the EPG
+	 * @param title
+	 *            series title in the EPG
+	 * @return season and episode number or null, if none of the texts contains
+	 *         them
+	 */
+	public EpisodeInformation extract(String description, String episodeName, String title) {
+		StringBuilder text = new StringBuilder();
+		text.append(description == null ? "" : description).append('\n');
+		text.append(episodeName == null ? "" : episodeName).append('\n');
+		text.append(title == null ? "" : title);
+		return extractFromText(text.toString(), description == null ? 0 : description.length());
+	}
+
+	/**
+	 * @param text
+	 *            text to be searched
+	 * @param descriptionEnd
+	 *            end of the description in the text
+	 * @return season and episode number found by the earliest matching rule or
+	 *         null, if no rule matches
+	 */
+	private EpisodeInformation extractFromText(String text, int descriptionEnd) {
+		EpisodeInformation best = null;
+		int bestRule = hasGroups.length;
+		int from = pattern == null ? -1 : getSearchStart(text);
+		if (from >= 0) {
+			Matcher matcher = pattern.matcher(text);
+			matcher.useTransparentBounds(true);
+			matcher.useAnchoringBounds(false);
+			matcher.region(from, text.length());
+			while (bestRule > 0 && matcher.find()) {
+				int rule = getMatchingRule(matcher);
+				if (rule < bestRule) {
+					EpisodeInformation found = getNumbers(matcher, rule, text, descriptionEnd);
+					if (found != null) {
+						best = found;
+						bestRule = rule;
+					}
+				}
+			}
+		}
+		// rules with back references only matter, if they precede the rule
+		// found by the combined pattern
+		for (int rule = 0; rule < bestRule; rule++) {
+			if (separatePatterns[rule] != null) {
+				Matcher matcher = separatePatterns[rule].matcher(text);
+				while (matcher.find()) {
+					EpisodeInformation found = getNumbers(matcher, rule, text, descriptionEnd);
+					if (found != null) {
+						return found;
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @param text
+	 *            text to be searched
+	 * @return first index a rule of the combined pattern may match at or -1,
+	 *         if the text does not contain any of their literal prefixes
+	 */
+	private int getSearchStart(String text) {
+		if (literalPrefixes == null) {
+			return 0;
+		}
+		int from = -1;
+		for (String literalPrefix : literalPrefixes) {
+			int index = text.indexOf(literalPrefix);
+			if (index >= 0 && (from < 0 || index < from)) {
+				from = index;
+			}
+		}
+		return from;
+	}
+
+	/**
+	 * @param matcher
+	 *            matcher of the combined pattern positioned on a match
+	 * @return index of the rule that matched
+	 */
+	private int getMatchingRule(Matcher matcher) {
+		for (int rule : combinedRules) {
+			if (matcher.start(GROUP_RULE + rule) >= 0) {
+				return rule;
+			}
+		}
+		return hasGroups.length;
+	}
+
+	/**
+	 * @param matcher
+	 *            matcher positioned on a match of the rule
+	 * @param rule
+	 *            index of the rule that matched
+	 * @param text
+	 *            searched text
+	 * @param descriptionEnd
+	 *            end of the description in the text
+	 * @return season and episode number or null, if the match does not contain
+	 *         them
+	 */
+	private EpisodeInformation getNumbers(Matcher matcher, int rule, String text, int descriptionEnd) {
+		if (hasGroups[rule]) {
+			// the groups of rules in the combined pattern are numbered
+			String groupSuffix = separatePatterns[rule] == null ? String.valueOf(rule) : "";
+			String seasonNumber = matcher.group(GROUP_SEASON + groupSuffix);
+			String episodeNumber = matcher.group(GROUP_EPISODE + groupSuffix);
+			if (seasonNumber == null || episodeNumber == null) {
+				return null;
+			}
+			return new EpisodeInformation(null, seasonNumber, episodeNumber, null);
+		}
+		return extractFromSentences(text, matcher.start(), descriptionEnd);
+	}
+
+	/**
+	 * Reads the episode number from the first and the season number from the
+	 * second sentence following the beginning of the match
+	 *
+	 * @param description
+	 *            EPG description text
+	 * @param start
+	 *            beginning of the match
+	 * @param end
+	 *            end of the description, sentences are not read beyond
+	 * @return season and episode number or null, if the sentences do not
+	 *         contain them
+	 */
+	private static EpisodeInformation extractFromSentences(String description, int start, int end) {
+		int firstDot = description.indexOf('.', start);
+		if (firstDot < 0 || firstDot >= end) {
+			return null;
+		}
+		int secondDot = description.indexOf('.', firstDot + 1);
+		if (secondDot < 0 || secondDot > end) {
+			secondDot = end;
+		}
+		Matcher numberMatcher = NUMBER_PATTERN.matcher(description);
+		numberMatcher.region(start, firstDot);
+		if (!numberMatcher.find()) {
+			return null;
+		}
+		String episodeNumber = numberMatcher.group();
+		numberMatcher.region(firstDot + 1, secondDot);
+		if (!numberMatcher.find()) {
+			return null;
+		}
+		return new EpisodeInformation(null, numberMatcher.group(), episodeNumber, null);
+	}
+
+	/**
+	 * @param epgPattern
+	 *            description pattern
+	 * @return true, if the pattern contains a numbered (<code>\1</code>) or
+	 *         named (<code>\k&lt;name&gt;</code>) back reference
+	 */
+	static boolean hasBackReference(String epgPattern) {
+		for (int i = 0; i + 1 < epgPattern.length(); i++) {
+			if (epgPattern.charAt(i) == '\\') {
+				char escaped = epgPattern.charAt(++i);
+				if ((escaped >= '1' && escaped <= '9') || escaped == 'k') {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param epgPattern
+	 *            description pattern
+	 * @return true, if the pattern defines both named groups
+	 */
+	private static boolean hasGroups(String epgPattern) {
+		return epgPattern.contains("(?<" + GROUP_SEASON + ">") && epgPattern.contains("(?<" + GROUP_EPISODE + ">");
+	}
+
+	/**
+	 * Wraps the first two number tokens (<code>\d</code> and its quantifier)
+	 * outside of character classes into the groups {@value #GROUP_EPISODE} and
+	 * {@value #GROUP_SEASON}
+	 *
+	 * @param epgPattern
+	 *            description pattern without named groups
+	 * @return pattern with named groups or the unchanged pattern, if it does not
+	 *         contain two number tokens
+	 */
+	static String addGroups(String epgPattern) {
+		String[] groups = { GROUP_EPISODE, GROUP_SEASON };
+		int groupIndex = 0;
+		StringBuilder result = new StringBuilder(epgPattern.length() + 32);
+		boolean inCharacterClass = false;
+		int i = 0;
+		while (i < epgPattern.length()) {
+			char c = epgPattern.charAt(i);
+			if (c == '\\' && i + 1 < epgPattern.length()) {
+				if (!inCharacterClass && groupIndex < groups.length && epgPattern.charAt(i + 1) == 'd') {
+					int end = getQuantifierEnd(epgPattern, i + 2);
+					result.append("(?<").append(groups[groupIndex++]).append('>').append(epgPattern, i, end).append(')');
+					i = end;
+				} else {
+					result.append(c).append(epgPattern.charAt(i + 1));
+					i += 2;
+				}
+				continue;
+			}
+			if (c == '[') {
+				inCharacterClass = true;
+			} else if (c == ']') {
+				inCharacterClass = false;
+			}
+			result.append(c);
+			i++;
+		}
+		return groupIndex == groups.length ? result.toString() : epgPattern;
+	}
+
+	/**
+	 * @param epgPattern
+	 *            description pattern
+	 * @param index
+	 *            index following a token
+	 * @return index following the quantifier of the token or the given index,
+	 *         if the token has no quantifier
+	 */
+	private static int getQuantifierEnd(String epgPattern, int index) {
+		int end = index;
+		if (end < epgPattern.length()) {
+			char c = epgPattern.charAt(end);
+			if (c == '+' || c == '*' || c == '?') {
+				end++;
+			} else if (c == '{') {
+				int closing = epgPattern.indexOf('}', end);
+				end = closing < 0 ? end : closing + 1;
+			}
+			if (end > index && end < epgPattern.length() && (epgPattern.charAt(end) == '?' || epgPattern.charAt(end) == '+')) {
+				// reluctant or possessive quantifier
+				end++;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Determines the literal text every match of the pattern starts with
+	 *
+	 * @param epgPattern
+	 *            description pattern
+	 * @return literal prefix or null, if the pattern does not start with
+	 *         literal text or contains alternatives or flags
+	 */
+	static String getLiteralPrefix(String epgPattern) {
+		if (epgPattern.indexOf('|') >= 0 || epgPattern.startsWith("(?")) {
+			return null;
+		}
+		StringBuilder prefix = new StringBuilder();
+		int i = 0;
+		while (i < epgPattern.length()) {
+			char c = epgPattern.charAt(i);
+			char literal;
+			int next;
+			if (c == '\\' && i + 1 < epgPattern.length()) {
+				char escaped = epgPattern.charAt(i + 1);
+				if (Character.isLetterOrDigit(escaped)) {
+					// character class like \d or back reference
+					break;
+				}
+				literal = escaped;
+				next = i + 2;
+			} else if (".[](){}*+?^$\\".indexOf(c) >= 0) {
+				break;
+			} else {
+				literal = c;
+				next = i + 1;
+			}
+			if (next < epgPattern.length() && "*?{".indexOf(epgPattern.charAt(next)) >= 0) {
+				// the character is optional or repeated
+				break;
+			}
+			prefix.append(literal);
+			if (next < epgPattern.length() && epgPattern.charAt(next) == '+') {
+				// the character is repeated at least once
+				break;
+			}
+			i = next;
+		}
+		return prefix.length() == 0 ? null : prefix.toString();
+	}
+}
@@ -0,0 +1,313 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.mediaportal.episodenumbergenerator.model.CaseFolding;
+import de.mediaportal.episodenumbergenerator.model.series.Updates;
+
+/**
+ * Persistent cache of resolved EPG lines. The season and episode number found
+ * for a series title and episode name is stored, so repeats of the same episode
+ * can be resolved in later runs without searching the EPG description or
+ * thetvdb.com again. Entries resolved online remember the thetvdb series ID and
+ * are invalidated when thetvdb reports {@link Updates} for that series.
+ *
+ * @author Oliver
+ *
+ */
+public class ResolutionCache {
+	/**
+	 * Filename of the resolution cache ({@value #FILENAME_RESOLUTION_CACHE})
+	 */
+	public final static String FILENAME_RESOLUTION_CACHE = "resolutions.txt";
+
+	/**
+	 * First line of the cache file containing the format version
+	 */
+	private final static String HEADER = "#MPEpisodeNumberGenerator resolution cache v1";
+
+	/**
+	 * Logger of the class {@link ResolutionCache}
+	 */
+	private static Logger logger = LogManager.getLogger(ResolutionCache.class);
+
+	/**
+	 * File the cache is persisted to
+	 */
+	private File cacheFile = null;
+
+	/**
+	 * Cached resolutions by their key
+	 */
+	private Map<String, Resolution> resolutions = new ConcurrentHashMap<>();
+
+	/**
+	 * Season and episode number of a resolved EPG line
+	 *
+	 * @author Oliver
+	 *
+	 */
+	public static class Resolution {
+		/**
+		 * Season number
+		 */
+		private String seasonNumber = null;
+
+		/**
+		 * Episode number
+		 */
+		private String episodeNumber = null;
+
+		/**
+		 * thetvdb series ID or null, if resolved offline
+		 */
+		private String seriesId = null;
+
+		/**
+		 * Time when the line was resolved (time since Epoch in ms)
+		 */
+		private long resolvedAt = 0;
+
+		/**
+		 * @param seasonNumber
+		 *            Season number
+		 * @param episodeNumber
+		 *            Episode number
+		 * @param seriesId
+		 *            thetvdb series ID or null, if resolved offline
+		 * @param resolvedAt
+		 *            Time when the line was resolved (time since Epoch in ms)
+		 */
+		public Resolution(String seasonNumber, String episodeNumber, String seriesId, long resolvedAt) {
+			this.seasonNumber = seasonNumber;
+			this.episodeNumber = episodeNumber;
+			this.seriesId = seriesId;
+			this.resolvedAt = resolvedAt;
+		}
+
+		/**
+		 * @return Season number
+		 */
+		public String getSeasonNumber() {
+			return seasonNumber;
+		}
+
+		/**
+		 * @return Episode number
+		 */
+		public String getEpisodeNumber() {
+			return episodeNumber;
+		}
+
+		/**
+		 * @return thetvdb series ID or null, if resolved offline
+		 */
+		public String getSeriesId() {
+			return seriesId;
+		}
+
+		/**
+		 * @return Time when the line was resolved (time since Epoch in ms)
+		 */
+		public long getResolvedAt() {
+			return resolvedAt;
+		}
+	}
+
+	/**
+	 * Creates the cache and reads the persisted entries, if the cache file
+	 * exists
+	 *
+	 * @param cacheFile
+	 *            File the cache is persisted to
+	 */
+	public ResolutionCache(File cacheFile) {
+		this.cacheFile = cacheFile;
+		if (cacheFile.exists()) {
+			try {
+				load();
+				logger.info("Loaded " + resolutions.size() + " resolved EPG lines from " + cacheFile.getName());
+			} catch (IOException e) {
+				logger.warn("Could not read resolution cache " + cacheFile.getName() + ". Starting with an empty cache (" + e.getMessage()
+						+ ")");
+				resolutions.clear();
+			}
+		}
+	}
+
+	/**
+	 * @param title
+	 *            series title in the EPG
+	 * @param episodeName
+	 *            episode name in the EPG
+	 * @return cached resolution or null, if the line has not been resolved yet
+	 */
+	public Resolution get(String title, String episodeName) {
+		if (!isCacheable(title, episodeName)) {
+			return null;
+		}
+		return resolutions.get(key(title, episodeName));
+	}
+
+	/**
+	 * Adds a resolved EPG line to the cache. Lines without series title or
+	 * episode name are not cached, because they are not unique
+	 *
+	 * @param title
+	 *            series title in the EPG
+	 * @param episodeName
+	 *            episode name in the EPG
+	 * @param seasonNumber
+	 *            Season number
+	 * @param episodeNumber
+	 *            Episode number
+	 * @param seriesId
+	 *            thetvdb series ID or null, if resolved offline
+	 */
+	public void put(String title, String episodeName, String seasonNumber, String episodeNumber, String seriesId) {
+		if (isCacheable(title, episodeName)) {
+			resolutions.put(key(title, episodeName), new Resolution(seasonNumber, episodeNumber, seriesId, System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Removes all entries of series that have been updated on thetvdb.com
+	 *
+	 * @param updates
+	 *            updated series since the last caching
+	 * @return amount of removed entries
+	 */
+	public int invalidate(Updates updates) {
+		int removed = 0;
+		if (updates != null) {
+			Iterator<Resolution> iterator = resolutions.values().iterator();
+			while (iterator.hasNext()) {
+				String seriesId = iterator.next().getSeriesId();
+				if (seriesId != null && updates.contains(seriesId)) {
+					iterator.remove();
+					removed++;
+				}
+			}
+		}
+		if (removed > 0) {
+			logger.info("Removed " + removed + " resolved EPG lines of series updated on thetvdb");
+		}
+		return removed;
+	}
+
+	/**
+	 * @return amount of cached entries
+	 */
+	public int size() {
+		return resolutions.size();
+	}
+
+	/**
+	 * Reads the cache file
+	 *
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be read or has an unknown
+	 *             format
+	 */
+	private void load() throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8))) {
+			String line = reader.readLine();
+			if (!HEADER.equals(line)) {
+				throw new IOException("Unknown format");
+			}
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length == 6) {
+					String seriesId = fields[4].isEmpty() ? null : fields[4];
+					resolutions.put(fields[0] + "\t" + fields[1], new Resolution(fields[2], fields[3], seriesId, Long.parseLong(fields[5])));
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid timestamp", e);
+		}
+	}
+
+	/**
+	 * Persists the cache. The file is written to a temporary file first and
+	 * moved to the cache afterwards
+	 *
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be written
+	 */
+	public void save() throws IOException {
+		File tempFile = CacheFiles.createTempFile(cacheFile);
+		try {
+			try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+				writer.write(HEADER);
+				writer.newLine();
+				for (Map.Entry<String, Resolution> entry : resolutions.entrySet()) {
+					Resolution resolution = entry.getValue();
+					writer.write(entry.getKey() + "\t" + clean(resolution.getSeasonNumber()) + "\t" + clean(resolution.getEpisodeNumber()) + "\t"
+							+ clean(resolution.getSeriesId()) + "\t" + resolution.getResolvedAt());
+					writer.newLine();
+				}
+			}
+			CacheFiles.replace(tempFile, cacheFile);
+			logger.info("Saved " + resolutions.size() + " resolved EPG lines to " + cacheFile.getName());
+		} finally {
+			if (tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * @param title
+	 *            series title in the EPG
+	 * @param episodeName
+	 *            episode name in the EPG
+	 * @return true, if the line identifies an episode
+	 */
+	static boolean isCacheable(String title, String episodeName) {
+		return title != null && episodeName != null && !title.trim().isEmpty() && !episodeName.trim().isEmpty();
+	}
+
+	/**
+	 * @param title
+	 *            series title in the EPG
+	 * @param episodeName
+	 *            episode name in the EPG
+	 * @return normalized key of the line
+	 */
+	static String key(String title, String episodeName) {
+		return normalize(title) + "\t" + normalize(episodeName);
+	}
+
+	/**
+	 * @param value
+	 *            title or episode name
+	 * @return value without surrounding whitespace, tabs and line breaks case
+	 *         folded by {@link CaseFolding}
+	 */
+	static String normalize(String value) {
+		return CaseFolding.fold(clean(value.trim()));
+	}
+
+	/**
+	 * @param value
+	 *            value to be written to the cache file
+	 * @return value without tabs and line breaks or an empty string for null
+	 */
+	static String clean(String value) {
+		return value == null ? "" : value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+}
@@ -0,0 +1,328 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.mediaportal.episodenumbergenerator.model.series.Updates;
+
+/**
+ * Persistent state of the incremental scan. The state holds the highest
+ * program ID scanned so far (high-water mark) and the EPG lines that could not
+ * be resolved recently. Incremental runs only scan lines above the high-water
+ * mark and lines of series whose failed lines have expired or have been
+ * updated on thetvdb.com. Titles of lines that could not be searched online,
+ * e.g. because thetvdb.com could not be reached, are scanned again by the next
+ * run.
+ *
+ * @author Oliver
+ *
+ */
+public class ScanState {
+	/**
+	 * Filename of the scan state ({@value #FILENAME_SCAN_STATE})
+	 */
+	public final static String FILENAME_SCAN_STATE = "scanstate.txt";
+
+	/**
+	 * First line of the state file containing the format version
+	 */
+	private final static String HEADER = "#MPEpisodeNumberGenerator scan state v1";
+
+	/**
+	 * Record type of the high-water mark
+	 */
+	private final static String RECORD_HIGH_WATER_MARK = "highwatermark";
+
+	/**
+	 * Record type of a failed EPG line
+	 */
+	private final static String RECORD_FAILED = "failed";
+
+	/**
+	 * Record type of a series title to be scanned again
+	 */
+	private final static String RECORD_RETRY = "retry";
+
+	/**
+	 * Logger of the class {@link ScanState}
+	 */
+	private static Logger logger = LogManager.getLogger(ScanState.class);
+
+	/**
+	 * File the state is persisted to
+	 */
+	private File stateFile = null;
+
+	/**
+	 * Time a failed line is not scanned again (ms)
+	 */
+	private long failedLineTtl = 0;
+
+	/**
+	 * Highest program ID that has been scanned
+	 */
+	private int highWaterMark = 0;
+
+	/**
+	 * Recently failed EPG lines by the key of {@link ResolutionCache}
+	 */
+	private Map<String, FailedLine> failedLines = new ConcurrentHashMap<>();
+
+	/**
+	 * Series titles of lines that could not be searched online and are scanned
+	 * again by the next run
+	 */
+	private Set<String> pendingTitles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	/**
+	 * EPG line that could not be resolved
+	 *
+	 * @author Oliver
+	 *
+	 */
+	private static class FailedLine {
+		/**
+		 * Series title as found in the EPG
+		 */
+		private String title = null;
+
+		/**
+		 * thetvdb series ID or null, if the series is unknown
+		 */
+		private String seriesId = null;
+
+		/**
+		 * Time when the line failed (time since Epoch in ms)
+		 */
+		private long failedAt = 0;
+
+		/**
+		 * @param title
+		 *            Series title as found in the EPG
+		 * @param seriesId
+		 *            thetvdb series ID or null, if the series is unknown
+		 * @param failedAt
+		 *            Time when the line failed (time since Epoch in ms)
+		 */
+		private FailedLine(String title, String seriesId, long failedAt) {
+			this.title = title;
+			this.seriesId = seriesId;
+			this.failedAt = failedAt;
+		}
+	}
+
+	/**
+	 * Creates the state and reads the persisted state, if the file exists
+	 *
+	 * @param stateFile
+	 *            File the state is persisted to
+	 * @param failedLineTtlDays
+	 *            Days a failed line is not scanned again
+	 */
+	public ScanState(File stateFile, int failedLineTtlDays) {
+		this.stateFile = stateFile;
+		this.failedLineTtl = failedLineTtlDays * 24L * 60 * 60 * 1000;
+		if (stateFile.exists()) {
+			try {
+				load();
+				logger.info("Incremental scan: high-water mark is program ID " + highWaterMark + ", " + failedLines.size()
+						+ " recently failed EPG lines");
+			} catch (IOException e) {
+				logger.warn("Could not read scan state " + stateFile.getName() + ". Scanning all EPG lines (" + e.getMessage() + ")");
+				highWaterMark = 0;
+				failedLines.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return Highest program ID that has been scanned
+	 */
+	public int getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	/**
+	 * Resets the high-water mark, e.g. if the program table has been recreated
+	 */
+	public void resetHighWaterMark() {
+		highWaterMark = 0;
+	}
+
+	/**
+	 * Raises the high-water mark to the given program ID
+	 *
+	 * @param programId
+	 *            scanned program ID
+	 */
+	public synchronized void updateHighWaterMark(int programId) {
+		if (programId > highWaterMark) {
+			highWaterMark = programId;
+		}
+	}
+
+	/**
+	 * Removes all failed lines that have expired or whose series has been
+	 * updated on thetvdb.com and all titles of lines that could not be searched
+	 * online. Their series have to be scanned again
+	 *
+	 * @param updates
+	 *            updated series since the last caching or null in offline mode
+	 * @return series titles to be scanned again
+	 */
+	public Set<String> removeRetryableLines(Updates updates) {
+		Set<String> retryTitles = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+		long expiredBefore = System.currentTimeMillis() - failedLineTtl;
+		Iterator<FailedLine> iterator = failedLines.values().iterator();
+		while (iterator.hasNext()) {
+			FailedLine failedLine = iterator.next();
+			if (failedLine.failedAt < expiredBefore || (failedLine.seriesId != null && updates != null && updates.contains(failedLine.seriesId))) {
+				retryTitles.add(failedLine.title);
+				iterator.remove();
+			}
+		}
+		retryTitles.addAll(pendingTitles);
+		pendingTitles.clear();
+		if (!retryTitles.isEmpty()) {
+			logger.info("Incremental scan: scanning " + retryTitles.size()
+					+ " series again because of expired or updated failed lines or lines that could not be searched online");
+		}
+		return retryTitles;
+	}
+
+	/**
+	 * @param title
+	 *            series title in the EPG
+	 * @param episodeName
+	 *            episode name in the EPG
+	 * @return true, if the line could not be resolved recently
+	 */
+	public boolean hasRecentlyFailed(String title, String episodeName) {
+		return ResolutionCache.isCacheable(title, episodeName) && failedLines.containsKey(ResolutionCache.key(title, episodeName));
+	}
+
+	/**
+	 * Remembers a line that could not be resolved. Lines without series title
+	 * or episode name are not remembered, because they are not unique
+	 *
+	 * @param title
+	 *            series title in the EPG
+	 * @param episodeName
+	 *            episode name in the EPG
+	 * @param seriesId
+	 *            thetvdb series ID or null, if the series is unknown
+	 */
+	public void addFailedLine(String title, String episodeName, String seriesId) {
+		if (ResolutionCache.isCacheable(title, episodeName)) {
+			failedLines.put(ResolutionCache.key(title, episodeName), new FailedLine(title, seriesId, System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Remembers the title of a line that could not be searched online, e.g.
+	 * because thetvdb.com could not be reached. The title is scanned again by
+	 * the next run, although the high-water mark has passed the line
+	 *
+	 * @param title
+	 *            series title in the EPG
+	 */
+	public void addPendingTitle(String title) {
+		if (title != null && !title.trim().isEmpty()) {
+			pendingTitles.add(title);
+		}
+	}
+
+	/**
+	 * Forgets a line that has been resolved
+	 *
+	 * @param title
+	 *            series title in the EPG
+	 * @param episodeName
+	 *            episode name in the EPG
+	 */
+	public void removeFailedLine(String title, String episodeName) {
+		if (ResolutionCache.isCacheable(title, episodeName)) {
+			failedLines.remove(ResolutionCache.key(title, episodeName));
+		}
+	}
+
+	/**
+	 * Reads the state file
+	 *
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be read or has an unknown
+	 *             format
+	 */
+	private void load() throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8))) {
+			String line = reader.readLine();
+			if (!HEADER.equals(line)) {
+				throw new IOException("Unknown format");
+			}
+			while ((line = reader.readLine()) != null) {
+				String[] fields = line.split("\t", -1);
+				if (fields.length == 2 && RECORD_HIGH_WATER_MARK.equals(fields[0])) {
+					highWaterMark = Integer.parseInt(fields[1]);
+				} else if (fields.length == 2 && RECORD_RETRY.equals(fields[0])) {
+					pendingTitles.add(fields[1]);
+				} else if (fields.length == 6 && RECORD_FAILED.equals(fields[0])) {
+					String seriesId = fields[4].isEmpty() ? null : fields[4];
+					failedLines.put(fields[1] + "\t" + fields[2], new FailedLine(fields[3], seriesId, Long.parseLong(fields[5])));
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid number", e);
+		}
+	}
+
+	/**
+	 * Persists the state. The file is written to a temporary file first and
+	 * moved afterwards
+	 *
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be written
+	 */
+	public void save() throws IOException {
+		File tempFile = CacheFiles.createTempFile(stateFile);
+		try {
+			try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), StandardCharsets.UTF_8))) {
+				writer.write(HEADER);
+				writer.newLine();
+				writer.write(RECORD_HIGH_WATER_MARK + "\t" + highWaterMark);
+				writer.newLine();
+				for (Map.Entry<String, FailedLine> entry : failedLines.entrySet()) {
+					FailedLine failedLine = entry.getValue();
+					writer.write(RECORD_FAILED + "\t" + entry.getKey() + "\t" + ResolutionCache.clean(failedLine.title) + "\t"
+							+ ResolutionCache.clean(failedLine.seriesId) + "\t" + failedLine.failedAt);
+					writer.newLine();
+				}
+				for (String pendingTitle : pendingTitles) {
+					writer.write(RECORD_RETRY + "\t" + ResolutionCache.clean(pendingTitle));
+					writer.newLine();
+				}
+			}
+			CacheFiles.replace(tempFile, stateFile);
+			logger.info("Incremental scan: saved high-water mark " + highWaterMark + " and " + failedLines.size() + " failed EPG lines");
+		} finally {
+			if (tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.mediaportal.episodenumbergenerator.MPEpisodeNumberGenerator;
+import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeIndex;
+
+/**
+ * Process-wide in-memory cache of the {@link EpisodeIndex} of every series
+ * loaded during a run, keyed by the thetvdb series ID. A series appearing
+ * under several EPG titles or substitutions is read from the file cache or
+ * thetvdb.com only once. If several controllers request a series that is
+ * being loaded, they wait for the first load instead of loading it again.
+ * <p>
+ * The cache holds at most the configured amount of episodes and evicts the
+ * least recently used series first. The indexes are only referenced softly,
+ * so the garbage collector may release them earlier if memory runs short.
+ *
+ * @author Oliver
+ *
+ */
+public class SeriesCache {
+	/**
+	 * Logger of the class {@link SeriesCache}
+	 */
+	private static Logger logger = LogManager.getLogger(SeriesCache.class);
+
+	/**
+	 * Instance shared by all {@link TheTvDbController}s
+	 */
+	private static SeriesCache instance = null;
+
+	/**
+	 * Maximal amount of episodes of all cached series or 0, if no series is
+	 * kept
+	 */
+	private int maxEpisodes = 0;
+
+	/**
+	 * Amount of episodes of all cached series
+	 */
+	private int cachedEpisodes = 0;
+
+	/**
+	 * Cached series by their ID in access order
+	 */
+	private LinkedHashMap<String, CachedSeries> series = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Loads in progress by the series ID
+	 */
+	private Map<String, FutureTask<EpisodeIndex>> loads = new ConcurrentHashMap<>();
+
+	/**
+	 * Softly referenced episode index with the amount of its episodes, which
+	 * is still known after the index has been released
+	 *
+	 * @author Oliver
+	 *
+	 */
+	private static class CachedSeries {
+		/**
+		 * Episode index released if memory runs short
+		 */
+		private SoftReference<EpisodeIndex> episodeIndex = null;
+
+		/**
+		 * Amount of episodes of the index
+		 */
+		private int episodes = 0;
+
+		/**
+		 * @param episodeIndex
+		 *            Episode index to be cached
+		 */
+		private CachedSeries(EpisodeIndex episodeIndex) {
+			this.episodeIndex = new SoftReference<>(episodeIndex);
+			this.episodes = episodeIndex.size();
+		}
+	}
+
+	/**
+	 * @return cache shared by all controllers, bounded by the
+	 *         {@link MPEpisodeNumberGenerator}'s config
+	 */
+	public synchronized static SeriesCache getInstance() {
+		if (instance == null) {
+			instance = new SeriesCache(MPEpisodeNumberGenerator.getConfig().getSeriesCacheMaxEpisodes());
+		}
+		return instance;
+	}
+
+	/**
+	 * @param maxEpisodes
+	 *            Maximal amount of episodes of all cached series or 0, if no
+	 *            series is kept. Loads in progress are shared anyway
+	 */
+	public SeriesCache(int maxEpisodes) {
+		this.maxEpisodes = Math.max(0, maxEpisodes);
+	}
+
+	/**
+	 * Returns the cached episode index of a series or loads it. If the series
+	 * is being loaded by another thread, the method waits for that load
+	 *
+	 * @param seriesId
+	 *            thetvdb series ID
+	 * @param loader
+	 *            loads the episode index from the file cache or thetvdb.com
+	 *            and returns null, if it could not be loaded
+	 * @return episode index or null, if it could not be loaded
+	 * @throws IOException
+	 *             Is thrown, if the loader fails or the thread is interrupted
+	 *             while waiting for another load
+	 */
+	public EpisodeIndex get(final String seriesId, final Callable<EpisodeIndex> loader) throws IOException {
+		EpisodeIndex episodeIndex = getCached(seriesId);
+		if (episodeIndex != null) {
+			logger.debug("Using episodes of series '" + seriesId + "' already loaded in this run");
+			return episodeIndex;
+		}
+		FutureTask<EpisodeIndex> load = new FutureTask<>(new Callable<EpisodeIndex>() {
+
+			@Override
+			public EpisodeIndex call() throws Exception {
+				// another load may have finished since the cache was checked
+				EpisodeIndex loadedIndex = getCached(seriesId);
+				if (loadedIndex == null) {
+					loadedIndex = loader.call();
+					if (loadedIndex != null) {
+						put(seriesId, loadedIndex);
+					}
+				}
+				return loadedIndex;
+			}
+		});
+		FutureTask<EpisodeIndex> runningLoad = loads.putIfAbsent(seriesId, load);
+		if (runningLoad == null) {
+			try {
+				// loaded by this thread
+				load.run();
+				return getLoaded(load);
+			} finally {
+				loads.remove(seriesId);
+			}
+		}
+		logger.debug("Waiting for series '" + seriesId + "' loaded by another thread");
+		return getLoaded(runningLoad);
+	}
+
+	/**
+	 * Removes a series, so it is loaded again by the next request
+	 *
+	 * @param seriesId
+	 *            thetvdb series ID
+	 */
+	public synchronized void remove(String seriesId) {
+		CachedSeries removed = series.remove(seriesId);
+		if (removed != null) {
+			cachedEpisodes -= removed.episodes;
+		}
+	}
+
+	/**
+	 * @param seriesId
+	 *            thetvdb series ID
+	 * @return cached episode index or null, if the series is not cached or has
+	 *         been released
+	 */
+	private synchronized EpisodeIndex getCached(String seriesId) {
+		CachedSeries cachedSeries = series.get(seriesId);
+		if (cachedSeries == null) {
+			return null;
+		}
+		EpisodeIndex episodeIndex = cachedSeries.episodeIndex.get();
+		if (episodeIndex == null) {
+			logger.debug("Episodes of series '" + seriesId + "' have been released to free memory");
+			series.remove(seriesId);
+			cachedEpisodes -= cachedSeries.episodes;
+		}
+		return episodeIndex;
+	}
+
+	/**
+	 * Caches an episode index and evicts the least recently used series, if
+	 * the cache holds too many episodes
+	 *
+	 * @param seriesId
+	 *            thetvdb series ID
+	 * @param episodeIndex
+	 *            loaded episode index
+	 */
+	private synchronized void put(String seriesId, EpisodeIndex episodeIndex) {
+		if (episodeIndex.size() > maxEpisodes) {
+			return;
+		}
+		CachedSeries replaced = series.put(seriesId, new CachedSeries(episodeIndex));
+		cachedEpisodes += episodeIndex.size() - (replaced == null ? 0 : replaced.episodes);
+		for (Iterator<Map.Entry<String, CachedSeries>> iterator = series.entrySet().iterator(); cachedEpisodes > maxEpisodes
+				&& iterator.hasNext();) {
+			Map.Entry<String, CachedSeries> eldest = iterator.next();
+			if (!eldest.getKey().equals(seriesId)) {
+				iterator.remove();
+				cachedEpisodes -= eldest.getValue().episodes;
+			}
+		}
+	}
+
+	/**
+	 * @param load
+	 *            load that has been run
+	 * @return result of the load
+	 * @throws IOException
+	 *             Is thrown, if the load failed or the thread is interrupted
+	 */
+	private static EpisodeIndex getLoaded(FutureTask<EpisodeIndex> load) throws IOException {
+		try {
+			return load.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for series data");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+}
@@ -0,0 +1,201 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeIndex;
+import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeInformation;
+
+/**
+ * Reads and writes the compact binary cache format of series data. Only the
+ * episode fields used to resolve season and episode numbers are stored. A file
+ * starts with an uncompressed header consisting of the magic number
+ * {@value #MAGIC}, the format version and the compression of the following
+ * episode records.
+ *
+ * @author Oliver
+ *
+ */
+public final class SeriesDataBinaryCache {
+	/**
+	 * Magic number at the beginning of every binary cache file
+	 */
+	public static final int MAGIC = 0x4D50454E;
+
+	/**
+	 * Version of the binary cache format
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * Episode records are not compressed
+	 */
+	public static final int COMPRESSION_NONE = 0;
+
+	/**
+	 * Episode records are compressed using gzip
+	 */
+	public static final int COMPRESSION_GZIP = 1;
+
+	/**
+	 * Episode records are compressed using deflate
+	 */
+	public static final int COMPRESSION_DEFLATE = 2;
+
+	/**
+	 * No instances needed
+	 */
+	private SeriesDataBinaryCache() {
+	}
+
+	/**
+	 * @param compression
+	 *            name of the compression as defined in settings.properties
+	 *            field <code>cachecompression</code>
+	 * @return compression constant of this class
+	 */
+	public static int parseCompression(String compression) {
+		if ("none".equalsIgnoreCase(compression)) {
+			return COMPRESSION_NONE;
+		} else if ("deflate".equalsIgnoreCase(compression)) {
+			return COMPRESSION_DEFLATE;
+		} else {
+			return COMPRESSION_GZIP;
+		}
+	}
+
+	/**
+	 * Writes all episodes of the index to the binary cache file. The file is
+	 * written to a temporary file first and moved to the cache afterwards
+	 *
+	 * @param episodeIndex
+	 *            episodes to be written
+	 * @param binaryFile
+	 *            binary cache file
+	 * @param compression
+	 *            one of the compression constants of this class
+	 * @throws IOException
+	 *             Is thrown, if the cache file cannot be written
+	 */
+	public static void write(EpisodeIndex episodeIndex, File binaryFile, int compression) throws IOException {
+		File tempFile = CacheFiles.createTempFile(binaryFile);
+		try {
+			try (FileOutputStream fos = new FileOutputStream(tempFile)) {
+				DataOutputStream header = new DataOutputStream(fos);
+				header.writeInt(MAGIC);
+				header.writeShort(VERSION);
+				header.writeByte(compression);
+				header.flush();
+
+				OutputStream recordStream = new BufferedOutputStream(fos);
+				if (compression == COMPRESSION_GZIP) {
+					recordStream = new GZIPOutputStream(recordStream);
+				} else if (compression == COMPRESSION_DEFLATE) {
+					recordStream = new DeflaterOutputStream(recordStream);
+				}
+				DataOutputStream records = new DataOutputStream(recordStream);
+				List<EpisodeInformation> episodes = episodeIndex.getEpisodes();
+				records.writeInt(episodes.size());
+				for (EpisodeInformation episodeInfo : episodes) {
+					writeString(records, episodeInfo.getId());
+					writeString(records, episodeInfo.getSeasonNumber());
+					writeString(records, episodeInfo.getEpisodeNumber());
+					writeString(records, episodeInfo.getEpisodeName());
+				}
+				records.close();
+			}
+			CacheFiles.replace(tempFile, binaryFile);
+		} finally {
+			if (tempFile.exists()) {
+				tempFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Reads all episodes of a binary cache file into an {@link EpisodeIndex}
+	 *
+	 * @param binaryFile
+	 *            binary cache file
+	 * @return index with all cached episodes
+	 * @throws IOException
+	 *             Is thrown, if the file cannot be read or has an unknown
+	 *             format or version
+	 */
+	public static EpisodeIndex read(File binaryFile) throws IOException {
+		try (FileChannel channel = FileChannel.open(binaryFile.toPath(), StandardOpenOption.READ)) {
+			InputStream channelStream = new BufferedInputStream(Channels.newInputStream(channel));
+			DataInputStream header = new DataInputStream(channelStream);
+			if (header.readInt() != MAGIC) {
+				throw new IOException("File " + binaryFile.getName() + " is no binary series data cache file");
+			}
+			int version = header.readShort();
+			if (version != VERSION) {
+				throw new IOException("File " + binaryFile.getName() + " has unsupported version " + version);
+			}
+			int compression = header.readByte();
+			InputStream recordStream = channelStream;
+			if (compression == COMPRESSION_GZIP) {
+				recordStream = new GZIPInputStream(channelStream);
+			} else if (compression == COMPRESSION_DEFLATE) {
+				recordStream = new InflaterInputStream(channelStream);
+			}
+			DataInputStream records = new DataInputStream(recordStream);
+			int episodeCount = records.readInt();
+			EpisodeIndex episodeIndex = new EpisodeIndex();
+			for (int i = 0; i < episodeCount; i++) {
+				String id = readString(records);
+				String seasonNumber = readString(records);
+				String episodeNumber = readString(records);
+				String episodeName = readString(records);
+				episodeIndex.add(new EpisodeInformation(id, seasonNumber, episodeNumber, episodeName));
+			}
+			return episodeIndex;
+		}
+	}
+
+	/**
+	 * Writes a string that may be null
+	 *
+	 * @param out
+	 *            output stream
+	 * @param value
+	 *            string or null
+	 * @throws IOException
+	 *             Is thrown, if the string cannot be written
+	 */
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null) {
+			out.writeUTF(value);
+		}
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}
+	 *
+	 * @param in
+	 *            input stream
+	 * @return string or null
+	 * @throws IOException
+	 *             Is thrown, if the string cannot be read
+	 */
+	private static String readString(DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
@@ -0,0 +1,89 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeIndex;
+import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeInformation;
+
+/**
+ * Streaming StAX parser for the series data xml returned by thetvdb.com. Only
+ * the fields of the <code>Episode</code> elements needed to resolve season and
+ * episode numbers are read and added directly to an {@link EpisodeIndex}
+ * without binding the complete document to objects.
+ *
+ * @author Oliver
+ *
+ */
+public class SeriesDataParser {
+	/**
+	 * Element name of an episode
+	 */
+	private static final String ELEMENT_EPISODE = "Episode";
+
+	/**
+	 * Shared factory for stream readers. DTDs and external entities are not
+	 * supported, because thetvdb.com does not use them
+	 */
+	private static final XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+
+	static {
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+	}
+
+	/**
+	 * Parses series data xml into an {@link EpisodeIndex}
+	 *
+	 * @param xmlInputStream
+	 *            series data xml. The stream is not closed by this method
+	 * @return index with all episodes of the series
+	 * @throws XMLStreamException
+	 *             Is thrown, if the xml is not well-formed
+	 */
+	public static EpisodeIndex parse(InputStream xmlInputStream) throws XMLStreamException {
+		EpisodeIndex episodeIndex = new EpisodeIndex();
+		XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(xmlInputStream);
+		try {
+			boolean inEpisode = false;
+			String id = null;
+			String seasonNumber = null;
+			String episodeNumber = null;
+			String episodeName = null;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					String elementName = reader.getLocalName();
+					if (ELEMENT_EPISODE.equals(elementName)) {
+						inEpisode = true;
+						id = null;
+						seasonNumber = null;
+						episodeNumber = null;
+						episodeName = null;
+					} else if (inEpisode) {
+						if ("id".equals(elementName)) {
+							id = reader.getElementText();
+						} else if ("SeasonNumber".equals(elementName)) {
+							seasonNumber = reader.getElementText();
+						} else if ("EpisodeNumber".equals(elementName)) {
+							episodeNumber = reader.getElementText();
+						} else if ("EpisodeName".equals(elementName)) {
+							episodeName = reader.getElementText();
+						}
+					}
+				} else if (event == XMLStreamConstants.END_ELEMENT && ELEMENT_EPISODE.equals(reader.getLocalName())) {
+					inEpisode = false;
+					episodeIndex.add(new EpisodeInformation(id, seasonNumber, episodeNumber, episodeName));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		return episodeIndex;
+	}
+}
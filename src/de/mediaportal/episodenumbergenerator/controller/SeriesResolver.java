@@ -0,0 +1,116 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import de.mediaportal.episodenumbergenerator.model.CaseFolding;
+
+/**
+ * Resolves a set of series titles using thetvdb.com before the EPG is scanned.
+ * Every title is resolved by its own {@link TheTvDbController}, which are
+ * created concurrently by a bounded pool of worker threads. Titles that could
+ * not be resolved are left out and have to be resolved while scanning.
+ *
+ * @author Oliver
+ *
+ */
+public class SeriesResolver {
+	/**
+	 * Logger of the class {@link SeriesResolver}
+	 */
+	private static Logger logger = LogManager.getLogger(SeriesResolver.class);
+
+	/**
+	 * Amount of worker threads
+	 */
+	private int parallelism = 1;
+
+	/**
+	 * Resolved controllers by their lower case series title
+	 */
+	private Map<String, TheTvDbController> controllers = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a resolver using the given amount of worker threads
+	 *
+	 * @param parallelism
+	 *            amount of series resolved at the same time
+	 */
+	public SeriesResolver(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * Resolves all given series and waits until all of them are done
+	 *
+	 * @param titlesWithAirYear
+	 *            series titles of the EPG with the air year used to resolve
+	 *            them
+	 * @throws InterruptedException
+	 *             Is thrown, if the thread is interrupted while waiting for the
+	 *             workers
+	 */
+	public void resolve(Map<String, String> titlesWithAirYear) throws InterruptedException {
+		logger.info("Resolving " + titlesWithAirYear.size() + " series using " + parallelism + " threads");
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+			private AtomicInteger threadCounter = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "SeriesResolver-" + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			List<Callable<TheTvDbController>> tasks = new ArrayList<>();
+			for (final Map.Entry<String, String> titleWithAirYear : titlesWithAirYear.entrySet()) {
+				tasks.add(new Callable<TheTvDbController>() {
+
+					@Override
+					public TheTvDbController call() throws Exception {
+						TheTvDbController controller = new TheTvDbController(titleWithAirYear.getKey(), titleWithAirYear.getValue());
+						controllers.put(CaseFolding.fold(titleWithAirYear.getKey()), controller);
+						return controller;
+					}
+				});
+			}
+			int errors = 0;
+			for (Future<TheTvDbController> result : executor.invokeAll(tasks)) {
+				try {
+					result.get();
+				} catch (ExecutionException e) {
+					errors++;
+					logger.error("Could not resolve series (" + e.getCause().getMessage() + ")", e.getCause());
+				}
+			}
+			logger.info("Resolved " + controllers.size() + " series (" + errors + " errors)");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param title
+	 *            series title of the EPG
+	 * @return controller of the series or null, if it has not been resolved
+	 */
+	public TheTvDbController get(String title) {
+		if (title == null) {
+			return null;
+		}
+		return controllers.get(CaseFolding.fold(title));
+	}
+}
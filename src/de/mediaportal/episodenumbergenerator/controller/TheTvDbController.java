@@ -1,19 +1,26 @@
 package de.mediaportal.episodenumbergenerator.controller;
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileFilter;
-import java.io.FileOutputStream;
-import java.io.FilenameFilter;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.nio.channels.Channels;
-import java.nio.channels.ReadableByteChannel;
-import java.util.Arrays;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.stream.XMLStreamException;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -23,9 +30,9 @@ import com.thoughtworks.xstream.XStream;
 import de.mediaportal.episodenumbergenerator.MPEpisodeNumberGenerator;
 import de.mediaportal.episodenumbergenerator.model.Config;
 import de.mediaportal.episodenumbergenerator.model.series.Updates;
+import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeIndex;
 import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeInformation;
 import de.mediaportal.episodenumbergenerator.model.series.data.SeriesData;
-import de.mediaportal.episodenumbergenerator.model.series.data.SeriesInformation;
 import de.mediaportal.episodenumbergenerator.model.series.list.SeriesList;
 import de.mediaportal.episodenumbergenerator.model.series.list.SeriesListEntry;
 
@@ -49,11 +56,16 @@ public class TheTvDbController {
 	 */
 	protected final static String FILENAME_MIRROR_LIST = "mirrors.xml";
 
+	/**
+	 * Prefix of the persisted query files ({@value #FILENAME_QUERY_FILE_PREFIX})
+	 */
+	protected final static String FILENAME_QUERY_FILE_PREFIX = "query_";
+
 	/**
 	 * Filename of the persisted query files ({@value #FILENAME_QUERY_FILE}).
 	 * The $ is replaced by the query pattern
 	 */
-	protected final static String FILENAME_QUERY_FILE = "query_$.xml";
+	protected final static String FILENAME_QUERY_FILE = FILENAME_QUERY_FILE_PREFIX + "$.xml";
 
 	/**
 	 * Prefix of the persisted seriesdata files (
@@ -69,6 +81,19 @@ public class TheTvDbController {
 	 */
 	protected final static String FILENAME_QUERY_SERIESDATA = FILENAME_QUERY_SERIESDATA_PREFIX + "_$.xml";
 
+	/**
+	 * Suffix of the persisted seriesdata files in binary cache format (
+	 * {@value #FILENAME_BINARY_SUFFIX} )
+	 */
+	protected final static String FILENAME_BINARY_SUFFIX = ".bin";
+
+	/**
+	 * Filename of the persisted seriesdata files in binary cache format (
+	 * {@value #FILENAME_QUERY_SERIESDATA_BINARY} ). The $ is replaced by the
+	 * query pattern
+	 */
+	protected final static String FILENAME_QUERY_SERIESDATA_BINARY = FILENAME_QUERY_SERIESDATA_PREFIX + "_$" + FILENAME_BINARY_SUFFIX;
+
 	/**
 	 * Config of {@link MPEpisodeNumberGenerator}
 	 */
@@ -80,6 +105,18 @@ public class TheTvDbController {
 	 */
 	protected static Updates updatesSinceLastCache = null;
 
+	/**
+	 * Binary cache files of the series whose changed episodes have been
+	 * patched in this run by their series ID
+	 */
+	private static Map<String, File> patchedSeriesFiles = new ConcurrentHashMap<>();
+
+	/**
+	 * Flag if fetching a changed episode from the proxy failed in this run.
+	 * Updated series are fetched completely for the rest of the run then
+	 */
+	private static volatile boolean deltaRefreshFailed = false;
+
 	/**
 	 * Name of the series which data is loaded from thetvdb.com
 	 */
@@ -96,15 +133,21 @@ public class TheTvDbController {
 	 */
 	protected String seriesId = null;
 
+	/**
+	 * Flag if the search result of thetvdb.com has been read, even if no series
+	 * matched, or thetvdb.com had no series for the title recently
+	 */
+	protected boolean searchCompleted = false;
+
 	/**
 	 * Parsed SeriesData
 	 */
 	protected SeriesData seriesData = null;
 
 	/**
-	 * Timestamp of the date 30 days before (time since Epoch in ms)
+	 * Lookup index of the episodes in {@link #seriesData}
 	 */
-	private static long timestamp30DaysBefore = -1;
+	protected EpisodeIndex episodeIndex = null;
 
 	/**
 	 * Logger of the class {@link TheTvDbController}
@@ -127,60 +170,83 @@ public class TheTvDbController {
 	 */
 	public TheTvDbController(String querySeriesName, String queryAirYear) throws IOException {
 		this.queryAirYear = queryAirYear;
-		if (timestamp30DaysBefore == -1) {
-			Calendar c = Calendar.getInstance();
-			c.setTime(new Date());
-			c.add(Calendar.DAY_OF_MONTH, -30);
-			timestamp30DaysBefore = c.getTimeInMillis();
-		}
 
 		logger.info("Resolving series '" + querySeriesName + "' with air year '" + queryAirYear + "' using thetvdb...");
 
 		// Change query if substitution exists
-		if (MPEpisodeNumberGenerator.getSeriesNameSubstitutions() != null) {
-			String substitute = MPEpisodeNumberGenerator.getSeriesNameSubstitutions().get(querySeriesName);
-			if (substitute != null) {
-				logger.debug("Substitution '" + substitute + "' found for query '" + querySeriesName + "'");
-				this.querySeriesName = substitute;
-			} else {
-				this.querySeriesName = querySeriesName;
-			}
+		this.querySeriesName = getQuerySeriesName(querySeriesName);
+		if (querySeriesName != null && !querySeriesName.equals(this.querySeriesName)) {
+			logger.debug("Searching series '" + querySeriesName + "' as '" + this.querySeriesName + "'");
 		}
 
-		if (querySeriesName != null) {
-			this.querySeriesName = this.querySeriesName.replaceAll("[\\/:*\"<>|?]", "");
+		// Skip series thetvdb had no series for recently. The cache is keyed
+		// by the query, so a new substitution is searched immediately
+		NegativeSeriesCache negativeCache = NegativeSeriesCache.getInstance();
+		if (negativeCache.isUnresolvable(this.querySeriesName, queryAirYear)) {
+			logger.info("Skipping series '" + this.querySeriesName + "', thetvdb had no matching series recently");
+			searchCompleted = true;
+			return;
 		}
 
 		// Read Updates since last caching
 		readUpdates();
 
-		// Try to find series by name
-		findSeriesByQueryString();
+		// Try to find series by name and remember titles without a matching
+		// series
+		searchCompleted = findSeriesByQueryString();
+		if (searchCompleted && seriesId == null) {
+			negativeCache.put(this.querySeriesName, queryAirYear);
+		}
 
 		// Get series episode data
 		getSeriesEpisodeData();
 
 	}
 
+	/**
+	 * @param seriesTitle
+	 *            series title in the EPG or null
+	 * @return name the series is searched for on thetvdb.com: the substitution
+	 *         of the title, if there is one, without characters not allowed in
+	 *         file names
+	 */
+	public static String getQuerySeriesName(String seriesTitle) {
+		if (seriesTitle == null) {
+			return null;
+		}
+		String querySeriesName = seriesTitle;
+		if (MPEpisodeNumberGenerator.getSeriesNameSubstitutions() != null) {
+			String substitute = MPEpisodeNumberGenerator.getSeriesNameSubstitutions().get(seriesTitle);
+			if (substitute != null) {
+				querySeriesName = substitute;
+			}
+		}
+		return querySeriesName.replaceAll("[\\/:*\"<>|?]", "");
+	}
+
 	/**
 	 * Analyzes the file cache of the application when the class is initialized
 	 * the first time and requests updated series' IDs from thetvdb.com. If
-	 * there is no cache, {@link #updatesSinceLastCache} will be null. If cache
+	 * there is no cache, {@link #updatesSinceLastCache} will be empty. If cache
 	 * files exist, it will store the IDs of the updated series since the last
-	 * cache timestamp
+	 * cache timestamp and delete their seriesdata files. The method is
+	 * synchronized, because series may be resolved by several threads at the
+	 * same time
 	 * 
 	 * @throws MalformedURLException
 	 */
-	private void readUpdates() throws MalformedURLException {
+	private static synchronized void readUpdates() throws MalformedURLException {
 		if (updatesSinceLastCache == null) {
-			XStream xstream = new XStream();
-			xstream.ignoreUnknownElements();
-			xstream.processAnnotations(Updates.class);
 			long oldestCacheTimestamp = clearCacheAndGetOldestCacheTimestamp();
 			if (oldestCacheTimestamp != -1) {
 				String updatesUrl = "http://thetvdb.com/api/Updates.php?type=all&time=" + oldestCacheTimestamp;
 				logger.info("Fetching updates since last cache from URL " + updatesUrl);
-				updatesSinceLastCache = (Updates) xstream.fromXML(new URL(updatesUrl));
+				updatesSinceLastCache = (Updates) XStreamParsers.UPDATES.fromXML(new URL(updatesUrl));
+				// Binary files of updated series are patched instead of fetched
+				// again, if the delta refresh is enabled
+				boolean deltaRefresh = config.isBinaryCacheFormat() && config.getDeltaRefreshMaxEpisodes() > 0;
+				CacheManifest.getInstance().invalidate(updatesSinceLastCache, deltaRefresh ? FILENAME_BINARY_SUFFIX : null,
+						oldestCacheTimestamp * 1000);
 			} else {
 				updatesSinceLastCache = new Updates();
 			}
@@ -189,88 +255,81 @@ public class TheTvDbController {
 	}
 
 	/**
-	 * Analyzes the file cache of the application to determine the oldest file
-	 * modified time stamp of a seriesdata file
+	 * Reads the updated series since the last caching, if this has not been
+	 * done yet
 	 * 
-	 * @return oldest unix time stamp of the files in cache or null, if there is
-	 *         no file cache yet
+	 * @return All series and episodes updated since the last time when the
+	 *         application cached data
+	 * @throws MalformedURLException
+	 *             Is thrown, if the updates URL is invalid
 	 */
-	private static long clearCacheAndGetOldestCacheTimestamp() {
-		File cacheDirectory = new File(PATH_CACHE);
-
-		File[] seriesDataFilesToClear = cacheDirectory.listFiles(new FileFilter() {
-
-			@Override
-			public boolean accept(File pathname) {
-				if (isOlder30Days(pathname)) {
-					return true;
-				} else {
-					return false;
-				}
-			}
-
-			public boolean isOlder30Days(File f) {
-				if (f != null && f.exists() && f.lastModified() < timestamp30DaysBefore) {
-					return true;
-				} else {
-					return false;
-				}
-			}
+	public static Updates getUpdatesSinceLastCache() throws MalformedURLException {
+		readUpdates();
+		return updatesSinceLastCache;
+	}
 
-		});
-		if (seriesDataFilesToClear != null && seriesDataFilesToClear.length > 0) {
-			logger.info("Deleting " + seriesDataFilesToClear.length + " found files in cache older 30 days.");
-			int errors = 0;
-			for (File f : seriesDataFilesToClear) {
-				try {
-					f.delete();
-				} catch (Exception e) {
-					errors++;
-				}
-			}
-			if (errors != 0) {
-				logger.warn("Could not delete " + errors + " files in your file cache. Check file permissions");
-			}
+	/**
+	 * Deletes the query and seriesdata files older than their configured time
+	 * to live, evicts files if the cache exceeds its configured limits and
+	 * determines the oldest time a seriesdata file has been fetched or patched
+	 * using the {@link CacheManifest}
+	 * 
+	 * @return oldest unix time stamp of the seriesdata files in cache or -1, if
+	 *         there is no file cache yet
+	 */
+	private static long clearCacheAndGetOldestCacheTimestamp() {
+		CacheManifest manifest = CacheManifest.getInstance();
+		int deletedFiles = manifest.removeFetchedBefore(FILENAME_QUERY_FILE_PREFIX, getTimestampDaysBefore(config.getCacheQueryTtlDays()));
+		deletedFiles += manifest.removeFetchedBefore(FILENAME_QUERY_SERIESDATA_PREFIX,
+				getTimestampDaysBefore(config.getCacheSeriesDataTtlDays()));
+		if (deletedFiles > 0) {
+			logger.info("Deleted " + deletedFiles + " expired files in cache.");
 		} else {
-			logger.info("No files in cache older 30 days found. Continuing.");
+			logger.info("No expired files in cache found. Continuing.");
 		}
+		manifest.setLimits(config.getCacheMaxBytes(), config.getCacheMaxEntries(), config.getCacheEvictionPolicy());
 
-		File[] seriesDataFiles = cacheDirectory.listFiles(new FilenameFilter() {
-
-			@Override
-			public boolean accept(File dir, String name) {
-				return name.startsWith(FILENAME_QUERY_SERIESDATA_PREFIX);
-			}
-		});
-		if (seriesDataFiles != null && seriesDataFiles.length > 0) {
-			Arrays.sort(seriesDataFiles);
-			File oldestFile = seriesDataFiles[0];
-			logger.info("Oldest file in cache " + oldestFile.getName() + " from " + new Date(oldestFile.lastModified()));
-			return oldestFile.lastModified() / 1000;
+		long oldestRefreshTime = manifest.getOldestRefreshTime(FILENAME_QUERY_SERIESDATA_PREFIX);
+		if (oldestRefreshTime != -1) {
+			logger.info("Oldest seriesdata file in cache from " + new Date(oldestRefreshTime));
+			return oldestRefreshTime / 1000;
 		} else {
 			return -1;
 		}
 	}
 
+	/**
+	 * @param days
+	 *            amount of days
+	 * @return timestamp of the date the given amount of days before (time
+	 *         since Epoch in ms)
+	 */
+	private static long getTimestampDaysBefore(int days) {
+		Calendar c = Calendar.getInstance();
+		c.setTime(new Date());
+		c.add(Calendar.DAY_OF_MONTH, -days);
+		return c.getTimeInMillis();
+	}
+
 	/**
 	 * Tries to find a series by the given query string using the GetSeries
 	 * function of the thetvdb.com API
 	 * 
+	 * @return true, if the search result could be fetched and parsed, even if
+	 *         no series matched
 	 * @throws IOException
 	 *             Is thrown, if there are problems with the local file cache
 	 */
-	private void findSeriesByQueryString() throws IOException {
+	private boolean findSeriesByQueryString() throws IOException {
 		File queryBySeriesNameXml = new File(PATH_CACHE + FILENAME_QUERY_FILE.replace("$", querySeriesName));
 		String getSeriesUrl = "http://thetvdb.com/api/GetSeries.php?seriesname=" + URLEncoder.encode(querySeriesName, "UTF-8")
 				+ "&language=all";
 		logger.debug("Trying to resolve series with url " + getSeriesUrl);
 
-		XStream xstream = new XStream();
-		xstream.ignoreUnknownElements();
-		xstream.processAnnotations(SeriesList.class);
-		xstream.processAnnotations(SeriesListEntry.class);
-
-		SeriesList seriesListObject = (SeriesList) parseFromCacheOrUrl(queryBySeriesNameXml, getSeriesUrl, xstream);
+		SeriesList seriesListObject = (SeriesList) parseFromCacheOrUrl(queryBySeriesNameXml, getSeriesUrl, XStreamParsers.SERIES_LIST);
+		if (seriesListObject == null) {
+			return false;
+		}
 		Vector<SeriesListEntry> seriesList = seriesListObject.getSeriesListEntries();
 		if (seriesList != null) {
 			int foundSeries = seriesList.size();
@@ -313,54 +372,236 @@ public class TheTvDbController {
 				}
 			}
 		}
-
+		return true;
 	}
 
 	/**
-	 * If it was possible to find a episode its data is parsed from the api or
-	 * from the local file cache
+	 * If it was possible to find a episode its data is taken from the
+	 * {@link SeriesCache}, so a series found under several titles is only
+	 * loaded once per run
 	 * 
 	 * @throws IOException
 	 *             Is thrown, if there are problems with the local file cache
 	 */
 	private void getSeriesEpisodeData() throws IOException {
 		if (seriesId != null) {
-			File seriesDataFile = new File(PATH_CACHE + FILENAME_QUERY_SERIESDATA.replace("$", seriesId + "_" + querySeriesName));
 			logger.debug("Chosen seriesId is '" + seriesId + "'");
+			episodeIndex = SeriesCache.getInstance().get(seriesId, new Callable<EpisodeIndex>() {
 
-			// Delete local file if new data is found at thetvdb
-			if (updatesSinceLastCache != null && updatesSinceLastCache.contains(seriesId)) {
+				@Override
+				public EpisodeIndex call() throws Exception {
+					return loadEpisodeIndex();
+				}
+			});
+		}
+	}
 
-				if (seriesDataFile.exists()) {
-					logger.info(
-							"Deleting file " + seriesDataFile.getName() + " because new data on thetvdb has been found since last caching");
-					seriesDataFile.delete();
+	/**
+	 * Loads the episodes of the series from the local file cache or parses
+	 * them from the api
+	 * 
+	 * @return lookup index of the episodes or null, if no series data could be
+	 *         found
+	 * @throws IOException
+	 *             Is thrown, if there are problems with the local file cache
+	 */
+	private EpisodeIndex loadEpisodeIndex() throws IOException {
+		File seriesDataFile = new File(PATH_CACHE + FILENAME_QUERY_SERIESDATA.replace("$", seriesId + "_" + querySeriesName));
+		File seriesDataBinaryFile = new File(
+				PATH_CACHE + FILENAME_QUERY_SERIESDATA_BINARY.replace("$", seriesId + "_" + querySeriesName));
+		// Files of series updated on thetvdb have already been deleted by
+		// the cache manifest
+		CacheManifest manifest = CacheManifest.getInstance();
+
+		// Read the binary cache first, it is way faster than parsing xml
+		if (config.isBinaryCacheFormat() && seriesDataBinaryFile.exists()) {
+			try {
+				if (!manifest.isIntact(seriesDataBinaryFile)) {
+					throw new IOException("size or checksum differs from the cache manifest");
+				}
+				episodeIndex = SeriesDataBinaryCache.read(seriesDataBinaryFile);
+				manifest.touch(seriesDataBinaryFile);
+				if (manifest.isStale(seriesDataBinaryFile)) {
+					episodeIndex = patchChangedEpisodes(episodeIndex, seriesDataBinaryFile);
+					if (episodeIndex == null) {
+						manifest.remove(seriesDataBinaryFile);
+					}
 				}
+			} catch (IOException e) {
+				logger.warn("Deleting unreadable binary cache file " + seriesDataBinaryFile.getName() + " (" + e.getMessage() + ")");
+				manifest.remove(seriesDataBinaryFile);
+			}
+		}
+		boolean parsedFromXml = episodeIndex == null;
+
+		int tryCounter = 1;
+		XStream xstreamSeriesData = config.isXStreamSeriesDataParser() ? XStreamParsers.SERIES_DATA : null;
+		while (tryCounter < 4 && episodeIndex == null) {
+			try {
+				tryCounter++;
+				fetchSeriesData(xstreamSeriesData, seriesDataFile);
+			} catch (Exception e) {
+				logger.error("Try No. " + tryCounter + ": When trying to fetch series data from cache or from "
+						+ "thetvdb an Exception has been thrown (" + e.getMessage() + ").");
+				logger.debug(e);
 			}
-			int tryCounter = 1;
-			XStream xstreamSeriesData = new XStream();
-			xstreamSeriesData.ignoreUnknownElements();
-			xstreamSeriesData.processAnnotations(SeriesData.class);
-			xstreamSeriesData.processAnnotations(SeriesInformation.class);
-			xstreamSeriesData.processAnnotations(EpisodeInformation.class);
-			while (tryCounter < 4 && seriesData == null) {
+		}
+		if (episodeIndex != null) {
+			logger.debug("Indexed " + episodeIndex.size() + " episodes of series '" + seriesId + "'");
+			if (config.isBinaryCacheFormat() && parsedFromXml) {
+				// Replace the xml in the cache by the compact binary format
 				try {
-					tryCounter++;
-					fetchSeriesData(xstreamSeriesData, seriesDataFile);
-				} catch (Exception e) {
-					logger.error("Try No. " + tryCounter + ": When trying to fetch series data from cache or from "
-							+ "thetvdb an Exception has been thrown (" + e.getMessage() + ").");
-					logger.debug(e);
+					SeriesDataBinaryCache.write(episodeIndex, seriesDataBinaryFile,
+							SeriesDataBinaryCache.parseCompression(config.getCacheCompression()));
+					// the binary file holds the data fetched with the xml
+					long fetchTime = manifest.getFetchTime(seriesDataFile);
+					manifest.record(seriesDataBinaryFile, fetchTime == -1 ? System.currentTimeMillis() : fetchTime);
+					manifest.remove(seriesDataFile);
+				} catch (IOException e) {
+					logger.warn("Could not write binary cache file " + seriesDataBinaryFile.getName() + " (" + e.getMessage() + ")");
 				}
 			}
 		}
+		return episodeIndex;
+	}
+
+	/**
+	 * Fetches the changed episodes of a series updated on thetvdb one by one
+	 * from the proxy and patches them into the cached episodes, so the whole
+	 * series does not have to be fetched again. The patched episodes replace
+	 * the binary cache file, which keeps the fetch time of the whole series.
+	 * The {@link CacheManifest} records the time of the patch and the patched
+	 * episodes, so they are not fetched again while the updates still contain
+	 * them.
+	 * <p>
+	 * The proxy has to answer
+	 * <code>episode/?episodeid=&lt;id&gt;&amp;language=&lt;language&gt;</code>
+	 * with the series data document of the single episode, like
+	 * <code>series/?seriesid=</code> does for the whole series. If it fails
+	 * once, the delta refresh is disabled for the rest of the run
+	 * 
+	 * @param cachedIndex
+	 *            episodes read from the binary cache file
+	 * @param seriesDataBinaryFile
+	 *            binary cache file of the series
+	 * @return patched episodes or null, if the whole series has to be fetched
+	 *         again, because none or too many of the cached episodes have
+	 *         changed or a changed episode could not be fetched
+	 */
+	private EpisodeIndex patchChangedEpisodes(EpisodeIndex cachedIndex, File seriesDataBinaryFile) {
+		CacheManifest manifest = CacheManifest.getInstance();
+		Set<String> patchedIds = manifest.getPatchedEpisodes(seriesDataBinaryFile);
+		List<String> changedIds = new ArrayList<>();
+		int alreadyPatched = 0;
+		for (EpisodeInformation episodeInfo : cachedIndex.getEpisodes()) {
+			if (episodeInfo.getId() != null && updatesSinceLastCache.containsEpisode(episodeInfo.getId())) {
+				if (patchedIds.contains(episodeInfo.getId())) {
+					alreadyPatched++;
+				} else {
+					changedIds.add(episodeInfo.getId());
+				}
+			}
+		}
+		if (changedIds.isEmpty() && alreadyPatched > 0) {
+			logger.info("Changed episodes of updated series '" + seriesId + "' have already been patched");
+			patchedSeriesFiles.put(seriesId, seriesDataBinaryFile);
+			return cachedIndex;
+		}
+		// Without changed episodes the series itself or episodes not cached
+		// yet have changed
+		if (deltaRefreshFailed || changedIds.isEmpty() || changedIds.size() > config.getDeltaRefreshMaxEpisodes()) {
+			logger.info("Fetching updated series '" + seriesId + "' again (" + changedIds.size() + " cached episodes changed)");
+			return null;
+		}
+
+		Map<String, EpisodeInformation> changedEpisodes = new HashMap<>();
+		for (String episodeId : changedIds) {
+			String getEpisodeUrl = config.getProxyUrl() + "episode/?episodeid=" + episodeId + "&language=" + config.getLanguage();
+			try (InputStream xmlInputStream = new BufferedInputStream(new URL(getEpisodeUrl).openStream())) {
+				List<EpisodeInformation> fetchedEpisodes = SeriesDataParser.parse(xmlInputStream).getEpisodes();
+				if (fetchedEpisodes.size() != 1 || !episodeId.equals(fetchedEpisodes.get(0).getId())) {
+					throw new IOException("Unexpected episode data from URL " + getEpisodeUrl);
+				}
+				changedEpisodes.put(episodeId, fetchedEpisodes.get(0));
+			} catch (IOException | XMLStreamException e) {
+				logger.warn("Could not fetch changed episode '" + episodeId + "', fetching updated series completely for the rest of the run ("
+						+ e.getMessage() + ")");
+				deltaRefreshFailed = true;
+				return null;
+			}
+		}
+
+		EpisodeIndex patchedIndex = new EpisodeIndex();
+		for (EpisodeInformation episodeInfo : cachedIndex.getEpisodes()) {
+			EpisodeInformation changedEpisode = changedEpisodes.get(episodeInfo.getId());
+			patchedIndex.add(changedEpisode != null ? changedEpisode : episodeInfo);
+		}
+		logger.info("Patched " + changedEpisodes.size() + " changed episodes of updated series '" + seriesId + "'");
+		patchedSeriesFiles.put(seriesId, seriesDataBinaryFile);
+
+		try {
+			SeriesDataBinaryCache.write(patchedIndex, seriesDataBinaryFile,
+					SeriesDataBinaryCache.parseCompression(config.getCacheCompression()));
+			manifest.recordPatch(seriesDataBinaryFile, changedEpisodes.keySet());
+		} catch (IOException e) {
+			// the stale file is patched again in the next run
+			logger.warn("Could not write binary cache file " + seriesDataBinaryFile.getName() + " (" + e.getMessage() + ")");
+		}
+		return patchedIndex;
 	}
 
 	/**
-	 * Fetches Series information from cache or from thetvdb
+	 * Fetches the whole series again, if its changed episodes have been
+	 * patched in this run and a missing episode may have been added on thetvdb
+	 * since the whole series has been fetched. Episodes added on thetvdb are
+	 * only known by an ID in the updates, which does not name the series, and
+	 * cannot be patched. Episodes aired before the whole series has been
+	 * fetched would have been contained in it, so they do not cause a fetch.
+	 * The series is fetched again at most once per run
+	 * 
+	 * @param originalAirDate
+	 *            original air date of the missing episode in the EPG
+	 *            (yyyy-MM-dd...) or null
+	 * @return true, if the series has been fetched again and the episode has
+	 *         to be looked up again in {@link #getEpisodeIndex()}
+	 */
+	public boolean refetchPatchedSeries(String originalAirDate) {
+		File seriesDataBinaryFile = seriesId != null ? patchedSeriesFiles.get(seriesId) : null;
+		if (seriesDataBinaryFile == null || originalAirDate == null) {
+			return false;
+		}
+		long fetchTime = CacheManifest.getInstance().getFetchTime(seriesDataBinaryFile);
+		if (fetchTime != -1 && originalAirDate.compareTo(new SimpleDateFormat("yyyy-MM-dd").format(new Date(fetchTime))) < 0) {
+			return false;
+		}
+		if (patchedSeriesFiles.remove(seriesId) == null) {
+			// fetched again by another controller of the series
+			return false;
+		}
+		logger.info("Fetching patched series '" + seriesId + "' again to find episodes added on thetvdb");
+		EpisodeIndex patchedIndex = episodeIndex;
+		CacheManifest.getInstance().remove(seriesDataBinaryFile);
+		SeriesCache.getInstance().remove(seriesId);
+		episodeIndex = null;
+		try {
+			getSeriesEpisodeData();
+		} catch (IOException e) {
+			logger.warn("Could not fetch patched series '" + seriesId + "' again (" + e.getMessage() + ")");
+		}
+		if (episodeIndex == null) {
+			episodeIndex = patchedIndex;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Fetches Series information from cache or from thetvdb and indexes its
+	 * episodes. If no XStream object is given, the streaming
+	 * {@link SeriesDataParser} is used and {@link #seriesData} stays empty
 	 * 
 	 * @param xstreamSeriesData
-	 *            XStream object
+	 *            XStream object or null
 	 * @param seriesDataFile
 	 *            DataFile
 	 * @throws IOException
@@ -369,7 +610,31 @@ public class TheTvDbController {
 	 */
 	private void fetchSeriesData(XStream xstreamSeriesData, File seriesDataFile) throws IOException {
 		String getSeriesDataUrl = config.getProxyUrl() + "series/?seriesid=" + seriesId + "&language=" + config.getLanguage();
-		seriesData = (SeriesData) parseFromCacheOrUrl(seriesDataFile, getSeriesDataUrl, xstreamSeriesData);
+		if (xstreamSeriesData != null) {
+			seriesData = (SeriesData) parseFromCacheOrUrl(seriesDataFile, getSeriesDataUrl, xstreamSeriesData);
+			if (seriesData != null) {
+				episodeIndex = new EpisodeIndex(seriesData);
+			}
+		} else {
+			episodeIndex = parseEpisodeIndexFromCacheOrUrl(seriesDataFile, getSeriesDataUrl);
+		}
+	}
+
+	/**
+	 * Parser of a local XML file
+	 *
+	 * @param <T>
+	 *            type of the parsed object
+	 */
+	private interface XmlFileParser<T> {
+		/**
+		 * @param xmlFile
+		 *            local XML file
+		 * @return parsed object
+		 * @throws Exception
+		 *             Is thrown, if the file cannot be read or parsed
+		 */
+		T parse(File xmlFile) throws Exception;
 	}
 
 	/**
@@ -384,51 +649,116 @@ public class TheTvDbController {
 	 * @param xstream
 	 *            preconfigured XStream parser
 	 * @return parsed Object
-	 * @throws IOException
-	 *             Is thrown, if there are problems with the local file cache
 	 */
-	private static Object parseFromCacheOrUrl(File xmlLocalFile, String xmlUrl, XStream xstream) throws IOException {
-		Object parsedXml = null;
+	private static Object parseFromCacheOrUrl(File xmlLocalFile, String xmlUrl, final XStream xstream) {
+		return parseFromCacheOrUrl(xmlLocalFile, xmlUrl, new XmlFileParser<Object>() {
+
+			@Override
+			public Object parse(File xmlFile) {
+				return xstream.fromXML(xmlFile);
+			}
+		});
+	}
+
+	/**
+	 * Checks if the series data XML file is saved in local data cache. If not,
+	 * loads XML from URL and saves it in the cache. The XML is parsed using the
+	 * streaming {@link SeriesDataParser}.
+	 * 
+	 * @param xmlLocalFile
+	 *            local file cache
+	 * @param xmlUrl
+	 *            remote XML url
+	 * @return index of the parsed episodes
+	 */
+	private static EpisodeIndex parseEpisodeIndexFromCacheOrUrl(File xmlLocalFile, String xmlUrl) {
+		return parseFromCacheOrUrl(xmlLocalFile, xmlUrl, new XmlFileParser<EpisodeIndex>() {
+
+			@Override
+			public EpisodeIndex parse(File xmlFile) throws Exception {
+				try (InputStream xmlInputStream = new BufferedInputStream(new FileInputStream(xmlFile))) {
+					return SeriesDataParser.parse(xmlInputStream);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Parses the XML file from the local data cache. If the file is not cached
+	 * yet, the XML is downloaded once into a temporary file, parsed and only
+	 * moved into the cache if it could be parsed completely.
+	 * 
+	 * @param xmlLocalFile
+	 *            local file cache
+	 * @param xmlUrl
+	 *            remote XML url
+	 * @param parser
+	 *            parser of the XML file
+	 * @return parsed object or null, if the XML could not be fetched or parsed
+	 */
+	private static <T> T parseFromCacheOrUrl(File xmlLocalFile, String xmlUrl, XmlFileParser<T> parser) {
+		T parsedXml = null;
+		CacheManifest manifest = CacheManifest.getInstance();
 		try {
+			if (xmlLocalFile.exists() && !manifest.isIntact(xmlLocalFile)) {
+				logger.warn("Deleting damaged cache file " + xmlLocalFile.getName() + " (size or checksum differs from the cache manifest)");
+				manifest.remove(xmlLocalFile);
+			}
 			if (!xmlLocalFile.exists()) {
 				logger.debug("Persisting XML from URL '" + xmlUrl + "'");
-				URL xmlUrlObject = new URL(xmlUrl);
-				parsedXml = xstream.fromXML(xmlUrlObject);
-				wget(xmlUrlObject, xmlLocalFile);
+				File downloadedFile = CacheFiles.download(new URL(xmlUrl), xmlLocalFile);
+				try {
+					parsedXml = parser.parse(downloadedFile);
+					CacheFiles.replace(downloadedFile, xmlLocalFile);
+					manifest.record(xmlLocalFile);
+				} finally {
+					if (downloadedFile.exists()) {
+						downloadedFile.delete();
+					}
+				}
 			} else {
-				parsedXml = xstream.fromXML(xmlLocalFile);
+				parsedXml = parser.parse(xmlLocalFile);
+				manifest.touch(xmlLocalFile);
 			}
 		} catch (Exception e) {
 			logger.error("Persisting XML from URL '" + xmlUrl + "' failed (" + e.getMessage() + ")", e);
 		}
 		return parsedXml;
+	}
 
+	/**
+	 * @return ID of the series or null, if the series could not be found
+	 */
+	public String getSeriesId() {
+		return seriesId;
 	}
 
 	/**
-	 * Persists a remote file to a local file object
-	 * 
-	 * @param url
-	 *            remote URL
-	 * @param localFile
-	 *            local {@link File} Object
-	 * @throws IOException
-	 *             Is thrown, if there are problems saving to the local file
+	 * @return true, if the search result of thetvdb.com has been read, even if
+	 *         no series matched, or thetvdb.com had no series for the title
+	 *         recently. False, if thetvdb.com could not be reached
 	 */
-	private static void wget(URL url, File localFile) throws IOException {
-		ReadableByteChannel rbc = Channels.newChannel(url.openStream());
-		FileOutputStream fos = new FileOutputStream(localFile);
-		fos.getChannel().transferFrom(rbc, 0, Long.MAX_VALUE);
-		fos.close();
+	public boolean isSearchCompleted() {
+		return searchCompleted;
 	}
 
 	/**
-	 * @return seriesData after the search is complete
+	 * @return seriesData after the search is complete. Only available if the
+	 *         series data is parsed using XStream and has not been loaded by
+	 *         another controller before
 	 */
 	public SeriesData getSeriesData() {
 		return seriesData;
 	}
 
+	/**
+	 * @return lookup index of the episodes of the series or null, if no series
+	 *         data could be found
+	 */
+	public EpisodeIndex getEpisodeIndex() {
+		return episodeIndex;
+	}
+
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
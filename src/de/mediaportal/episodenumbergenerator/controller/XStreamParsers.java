@@ -0,0 +1,58 @@
+package de.mediaportal.episodenumbergenerator.controller;
+
+import com.thoughtworks.xstream.XStream;
+
+import de.mediaportal.episodenumbergenerator.model.series.Updates;
+import de.mediaportal.episodenumbergenerator.model.series.data.EpisodeInformation;
+import de.mediaportal.episodenumbergenerator.model.series.data.SeriesData;
+import de.mediaportal.episodenumbergenerator.model.series.data.SeriesInformation;
+import de.mediaportal.episodenumbergenerator.model.series.list.SeriesList;
+import de.mediaportal.episodenumbergenerator.model.series.list.SeriesListEntry;
+
+/**
+ * Shared, preconfigured {@link XStream} parsers for the xml documents returned
+ * by thetvdb.com. Configuring XStream is expensive, so every parser is created
+ * once when the class is loaded. A configured XStream instance is thread-safe
+ * for parsing and can be used by all {@link TheTvDbController} instances.
+ *
+ * @author Oliver
+ *
+ */
+public final class XStreamParsers {
+	/**
+	 * Parser for the series list returned by the GetSeries api function
+	 */
+	public static final XStream SERIES_LIST = create(SeriesList.class, SeriesListEntry.class);
+
+	/**
+	 * Parser for the series data containing all episodes of a series
+	 */
+	public static final XStream SERIES_DATA = create(SeriesData.class, SeriesInformation.class, EpisodeInformation.class);
+
+	/**
+	 * Parser for the Updates api function
+	 */
+	public static final XStream UPDATES = create(Updates.class);
+
+	/**
+	 * No instances needed
+	 */
+	private XStreamParsers() {
+	}
+
+	/**
+	 * Creates an {@link XStream} parser that ignores unknown elements and is
+	 * allowed to create the given annotated types
+	 *
+	 * @param types
+	 *            XStream annotated classes
+	 * @return configured parser
+	 */
+	static XStream create(Class<?>... types) {
+		XStream xstream = new XStream();
+		xstream.ignoreUnknownElements();
+		xstream.processAnnotations(types);
+		xstream.allowTypes(types);
+		return xstream;
+	}
+}
@@ -0,0 +1,32 @@
+package de.mediaportal.episodenumbergenerator.model;
+
+/**
+ * Case folding of the series titles and episode names used as lookup keys.
+ * Every character is converted to upper case and back to lower case on its own
+ * like {@link String#equalsIgnoreCase(String)} compares them, so two values
+ * have the same key exactly if they are equal ignoring case. Converting the
+ * whole string instead would expand characters like "&szlig;" to "ss".
+ *
+ * @author Oliver
+ *
+ */
+public final class CaseFolding {
+	/**
+	 * No instances needed
+	 */
+	private CaseFolding() {
+	}
+
+	/**
+	 * @param value
+	 *            series title or episode name
+	 * @return case folded value
+	 */
+	public static String fold(String value) {
+		char[] folded = new char[value.length()];
+		for (int i = 0; i < folded.length; i++) {
+			folded[i] = Character.toLowerCase(Character.toUpperCase(value.charAt(i)));
+		}
+		return new String(folded);
+	}
+}
@@ -5,7 +5,13 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -54,6 +60,12 @@ public class Config extends Properties implements SettingsFields {
 	 */
 	private String epgPattern = null;
 
+	/**
+	 * ordered extraction rules consisting of the description pattern and the
+	 * numbered patterns <code>epgdescriptionpattern.&lt;n&gt;</code>
+	 */
+	private List<String> epgPatterns = new ArrayList<>();
+
 	/**
 	 * Flag to only scan EPG for series and episode numbers. If set the program
 	 * will not try to resolve informations using thetvdb.com
@@ -66,16 +78,153 @@ public class Config extends Properties implements SettingsFields {
 	private int backupCount = 10;
 
 	/**
-	 * List of titles of series that should never be resolved using the online
-	 * thetvdb search
+	 * way the backup is taken before the EPG is updated (jdbc, mysqldump or
+	 * none)
+	 */
+	private String backupMode = "mysqldump";
+
+	/**
+	 * amount of EPG updates sent to the database in one batch
+	 */
+	private int dbBatchSize = 100;
+
+	/**
+	 * amount of EPG updates committed in one transaction
+	 */
+	private int dbCommitSize = 1000;
+
+	/**
+	 * amount of EPG lines fetched from the database at once. 0 reads the
+	 * complete result into memory, -1 streams the result row by row
+	 */
+	private int dbFetchSize = 0;
+
+	/**
+	 * maximal amount of pooled connections to the database
+	 */
+	private int dbPoolSize = 4;
+
+	/**
+	 * amount of retries of EPG updates failed due to a transient database
+	 * error
+	 */
+	private int dbRetries = 3;
+
+	/**
+	 * way EPG updates are written to the database (batch or bulk)
+	 */
+	private String dbUpdateMode = "batch";
+
+	/**
+	 * amount of series resolved in parallel using thetvdb.com. A value of 1
+	 * resolves the series one after another while scanning the EPG
+	 */
+	private int theTvDbParallelism = 1;
+
+	/**
+	 * Flag to parse series data xml files using XStream object binding instead
+	 * of the streaming StAX parser
+	 */
+	private boolean xstreamSeriesDataParser = false;
+
+	/**
+	 * Flag to store series data in the compact binary cache format instead of
+	 * the xml returned by thetvdb.com
+	 */
+	private boolean binaryCacheFormat = false;
+
+	/**
+	 * Compression of the binary series data cache (none, gzip or deflate)
+	 */
+	private String cacheCompression = "gzip";
+
+	/**
+	 * maximal amount of episodes of series kept in memory during a run. 0
+	 * disables the in-memory cache
+	 */
+	private int seriesCacheMaxEpisodes = 100000;
+
+	/**
+	 * maximal amount of changed episodes of a cached series fetched one by one
+	 * instead of the whole series. 0 always fetches the whole series
 	 */
-	private String[] seriesTitlesOfflineOnly = null;
+	private int deltaRefreshMaxEpisodes = 0;
 
 	/**
-	 * List of titles of series that should never be resolved using the offline
-	 * epg text search
+	 * maximal size of the query and seriesdata files in the cache in bytes (0
+	 * for no limit)
 	 */
-	private String[] seriesTitlesOnlineOnly = null;
+	private long cacheMaxBytes = 0;
+
+	/**
+	 * maximal amount of query and seriesdata files in the cache (0 for no
+	 * limit)
+	 */
+	private int cacheMaxEntries = 0;
+
+	/**
+	 * files evicted first if the cache exceeds its limits (lru: least recently
+	 * used, lfu: least frequently used)
+	 */
+	private String cacheEvictionPolicy = "lru";
+
+	/**
+	 * days a query file is kept after it has been fetched
+	 */
+	private int cacheQueryTtlDays = 30;
+
+	/**
+	 * days a seriesdata file is kept after it has been fetched
+	 */
+	private int cacheSeriesDataTtlDays = 30;
+
+	/**
+	 * Flag to remember resolved EPG lines across runs, so repeats are resolved
+	 * without searching again
+	 */
+	private boolean resolutionCache = false;
+
+	/**
+	 * Flag to only scan EPG lines added since the last run and lines of series
+	 * that should be retried
+	 */
+	private boolean incrementalScan = false;
+
+	/**
+	 * Days an EPG line that could not be resolved is not scanned again in
+	 * incremental mode
+	 */
+	private int failedLinesTtlDays = 7;
+
+	/**
+	 * Days a series title thetvdb.com has no series for is not searched again.
+	 * 0 disables the negative cache
+	 */
+	private int negativeCacheTtlDays = 7;
+
+	/**
+	 * minimal similarity (0 to 1) of episode names matched fuzzily using
+	 * thetvdb.com. 0 disables the fuzzy matching
+	 */
+	private double fuzzyMatchThreshold = 0;
+
+	/**
+	 * Titles of series that should never be resolved using the online thetvdb
+	 * search by their case folded title
+	 */
+	private Map<String, String> seriesTitlesOfflineOnly = new HashMap<>();
+
+	/**
+	 * Titles of series that should never be resolved using the offline epg
+	 * text search by their case folded title
+	 */
+	private Map<String, String> seriesTitlesOnlineOnly = new HashMap<>();
+
+	/**
+	 * Encoding converted and case folded EPG titles by the title as read from
+	 * the EPG
+	 */
+	private Map<String, String> normalizedTitles = new ConcurrentHashMap<>();
 
 	/**
 	 * Logger of the {@link Config} class
@@ -103,18 +252,109 @@ public class Config extends Properties implements SettingsFields {
 		this.proxyUrl = getProperty(FIELD_PROXY_NAME);
 		this.epgSeriesIndicator = getProperty(FIELD_EPG_DESCRIPTION_SERIESINDICATOR);
 		this.epgPattern = getProperty(FIELD_EPG_DESCRIPTION_PATTERN);
+		if (epgPattern != null) {
+			epgPatterns.add(epgPattern);
+		}
+		String additionalPattern;
+		for (int n = 1; (additionalPattern = getProperty(FIELD_EPG_DESCRIPTION_PATTERN + "." + n)) != null; n++) {
+			epgPatterns.add(additionalPattern);
+		}
 		this.offline = "true".equalsIgnoreCase(getProperty(FIELD_OFFLINE));
 		String backupCountStr = getProperty(FIELD_BACKUP_COUNT);
 		if (backupCountStr != null) {
 			this.backupCount = Integer.parseInt(backupCountStr);
 		}
+		String backupModeStr = getProperty(FIELD_BACKUP_MODE);
+		if (backupModeStr != null && !backupModeStr.trim().isEmpty()) {
+			this.backupMode = backupModeStr.trim().toLowerCase();
+		}
+		String dbBatchSizeStr = getProperty(FIELD_DB_BATCH_SIZE);
+		if (dbBatchSizeStr != null) {
+			this.dbBatchSize = Integer.parseInt(dbBatchSizeStr);
+		}
+		String dbCommitSizeStr = getProperty(FIELD_DB_COMMIT_SIZE);
+		if (dbCommitSizeStr != null) {
+			this.dbCommitSize = Integer.parseInt(dbCommitSizeStr);
+		}
+		String dbFetchSizeStr = getProperty(FIELD_DB_FETCH_SIZE);
+		if (dbFetchSizeStr != null) {
+			this.dbFetchSize = Integer.parseInt(dbFetchSizeStr);
+		}
+		String dbPoolSizeStr = getProperty(FIELD_DB_POOL_SIZE);
+		if (dbPoolSizeStr != null) {
+			this.dbPoolSize = Integer.parseInt(dbPoolSizeStr);
+		}
+		String dbRetriesStr = getProperty(FIELD_DB_RETRIES);
+		if (dbRetriesStr != null) {
+			this.dbRetries = Integer.parseInt(dbRetriesStr);
+		}
+		String dbUpdateModeStr = getProperty(FIELD_DB_UPDATE_MODE);
+		if (dbUpdateModeStr != null && !dbUpdateModeStr.trim().isEmpty()) {
+			this.dbUpdateMode = dbUpdateModeStr.trim().toLowerCase();
+		}
+		String theTvDbParallelismStr = getProperty(FIELD_THETVDB_PARALLELISM);
+		if (theTvDbParallelismStr != null) {
+			this.theTvDbParallelism = Integer.parseInt(theTvDbParallelismStr);
+		}
+		this.xstreamSeriesDataParser = "xstream".equalsIgnoreCase(getProperty(FIELD_SERIESDATA_PARSER));
+		this.binaryCacheFormat = "binary".equalsIgnoreCase(getProperty(FIELD_CACHE_FORMAT));
+		String cacheCompressionStr = getProperty(FIELD_CACHE_COMPRESSION);
+		if (cacheCompressionStr != null && !"".equals(cacheCompressionStr)) {
+			this.cacheCompression = cacheCompressionStr;
+		}
+		String seriesCacheMaxEpisodesStr = getProperty(FIELD_SERIES_CACHE_MAX_EPISODES);
+		if (seriesCacheMaxEpisodesStr != null && !"".equals(seriesCacheMaxEpisodesStr)) {
+			this.seriesCacheMaxEpisodes = Integer.parseInt(seriesCacheMaxEpisodesStr);
+		}
+		String deltaRefreshMaxEpisodesStr = getProperty(FIELD_DELTA_REFRESH_MAX_EPISODES);
+		if (deltaRefreshMaxEpisodesStr != null && !"".equals(deltaRefreshMaxEpisodesStr)) {
+			this.deltaRefreshMaxEpisodes = Integer.parseInt(deltaRefreshMaxEpisodesStr);
+		}
+		String cacheMaxBytesStr = getProperty(FIELD_CACHE_MAX_BYTES);
+		if (cacheMaxBytesStr != null && !"".equals(cacheMaxBytesStr)) {
+			this.cacheMaxBytes = Long.parseLong(cacheMaxBytesStr);
+		}
+		String cacheMaxEntriesStr = getProperty(FIELD_CACHE_MAX_ENTRIES);
+		if (cacheMaxEntriesStr != null && !"".equals(cacheMaxEntriesStr)) {
+			this.cacheMaxEntries = Integer.parseInt(cacheMaxEntriesStr);
+		}
+		String cacheEvictionPolicyStr = getProperty(FIELD_CACHE_EVICTION_POLICY);
+		if (cacheEvictionPolicyStr != null && !"".equals(cacheEvictionPolicyStr)) {
+			this.cacheEvictionPolicy = cacheEvictionPolicyStr.trim().toLowerCase();
+		}
+		String cacheQueryTtlDaysStr = getProperty(FIELD_CACHE_QUERY_TTL_DAYS);
+		if (cacheQueryTtlDaysStr != null && !"".equals(cacheQueryTtlDaysStr)) {
+			this.cacheQueryTtlDays = Integer.parseInt(cacheQueryTtlDaysStr);
+		}
+		String cacheSeriesDataTtlDaysStr = getProperty(FIELD_CACHE_SERIESDATA_TTL_DAYS);
+		if (cacheSeriesDataTtlDaysStr != null && !"".equals(cacheSeriesDataTtlDaysStr)) {
+			this.cacheSeriesDataTtlDays = Integer.parseInt(cacheSeriesDataTtlDaysStr);
+		}
+		this.resolutionCache = "true".equalsIgnoreCase(getProperty(FIELD_RESOLUTION_CACHE));
+		this.incrementalScan = "true".equalsIgnoreCase(getProperty(FIELD_INCREMENTAL_SCAN));
+		String failedLinesTtlDaysStr = getProperty(FIELD_FAILED_LINES_TTL_DAYS);
+		if (failedLinesTtlDaysStr != null) {
+			this.failedLinesTtlDays = Integer.parseInt(failedLinesTtlDaysStr);
+		}
+		String negativeCacheTtlDaysStr = getProperty(FIELD_NEGATIVE_CACHE_TTL_DAYS);
+		if (negativeCacheTtlDaysStr != null && !"".equals(negativeCacheTtlDaysStr)) {
+			this.negativeCacheTtlDays = Integer.parseInt(negativeCacheTtlDaysStr);
+		}
+		String fuzzyMatchThresholdStr = getProperty(FIELD_FUZZY_MATCH_THRESHOLD);
+		if (fuzzyMatchThresholdStr != null && !"".equals(fuzzyMatchThresholdStr)) {
+			this.fuzzyMatchThreshold = Double.parseDouble(fuzzyMatchThresholdStr);
+		}
 		String offlineOnlyStr = getProperty(FIELD_SERIES_OFFLINE_ONLY);
 		if (offlineOnlyStr != null && !"".equalsIgnoreCase(offlineOnlyStr)) {
-			seriesTitlesOfflineOnly = offlineOnlyStr.split(";");
+			for (String offlineSeries : offlineOnlyStr.split(";")) {
+				seriesTitlesOfflineOnly.put(CaseFolding.fold(offlineSeries), offlineSeries);
+			}
 		}
 		String onlineOnlyStr = getProperty(FIELD_SERIES_ONLINE_ONLY);
 		if (onlineOnlyStr != null && !"".equalsIgnoreCase(onlineOnlyStr)) {
-			seriesTitlesOnlineOnly = onlineOnlyStr.split(";");
+			for (String onlineSeries : onlineOnlyStr.split(";")) {
+				seriesTitlesOnlineOnly.put(CaseFolding.fold(onlineSeries), onlineSeries);
+			}
 		}
 	}
 
@@ -156,6 +396,14 @@ public class Config extends Properties implements SettingsFields {
 		return this.epgPattern;
 	}
 
+	/**
+	 * @return ordered extraction rules to resolve series and episode number
+	 *         from the EPG, starting with the description pattern
+	 */
+	public List<String> getEpgPatterns() {
+		return Collections.unmodifiableList(epgPatterns);
+	}
+
 	/**
 	 * @return true, if offline mode is enabled, false, if not
 	 */
@@ -171,24 +419,216 @@ public class Config extends Properties implements SettingsFields {
 		return backupCount;
 	}
 
+	/**
+	 * @return way the backup is taken before the EPG is updated (jdbc,
+	 *         mysqldump or none)
+	 */
+	public String getBackupMode() {
+		return backupMode;
+	}
+
+	/**
+	 * @return amount of EPG updates sent to the database in one batch
+	 */
+	public int getDbBatchSize() {
+		return dbBatchSize;
+	}
+
+	/**
+	 * @return amount of EPG updates committed in one transaction
+	 */
+	public int getDbCommitSize() {
+		return dbCommitSize;
+	}
+
+	/**
+	 * @return amount of EPG lines fetched from the database at once (0 reads
+	 *         the complete result into memory, -1 streams row by row)
+	 */
+	public int getDbFetchSize() {
+		return dbFetchSize;
+	}
+
+	/**
+	 * @return maximal amount of pooled connections to the database
+	 */
+	public int getDbPoolSize() {
+		return dbPoolSize;
+	}
+
+	/**
+	 * @return amount of retries of EPG updates failed due to a transient
+	 *         database error
+	 */
+	public int getDbRetries() {
+		return dbRetries;
+	}
+
+	/**
+	 * @return way EPG updates are written to the database (batch or bulk)
+	 */
+	public String getDbUpdateMode() {
+		return dbUpdateMode;
+	}
+
+	/**
+	 * @return amount of series resolved in parallel using thetvdb.com
+	 */
+	public int getTheTvDbParallelism() {
+		return theTvDbParallelism;
+	}
+
+	/**
+	 * @return true, if series data xml files are parsed using XStream, false,
+	 *         if they are parsed using the streaming StAX parser
+	 */
+	public boolean isXStreamSeriesDataParser() {
+		return xstreamSeriesDataParser;
+	}
+
+	/**
+	 * @return true, if series data is cached in the compact binary format,
+	 *         false, if the xml of thetvdb.com is cached
+	 */
+	public boolean isBinaryCacheFormat() {
+		return binaryCacheFormat;
+	}
+
+	/**
+	 * @return Compression of the binary series data cache (none, gzip or
+	 *         deflate)
+	 */
+	public String getCacheCompression() {
+		return cacheCompression;
+	}
+
+	/**
+	 * @return maximal amount of episodes of series kept in memory during a run
+	 *         or 0, if the in-memory cache is disabled
+	 */
+	public int getSeriesCacheMaxEpisodes() {
+		return seriesCacheMaxEpisodes;
+	}
+
+	/**
+	 * @return maximal amount of changed episodes of a cached series fetched
+	 *         one by one instead of the whole series or 0, if the whole series
+	 *         is always fetched again
+	 */
+	public int getDeltaRefreshMaxEpisodes() {
+		return deltaRefreshMaxEpisodes;
+	}
+
+	/**
+	 * @return maximal size of the query and seriesdata files in the cache in
+	 *         bytes (0 for no limit)
+	 */
+	public long getCacheMaxBytes() {
+		return cacheMaxBytes;
+	}
+
+	/**
+	 * @return maximal amount of query and seriesdata files in the cache (0 for
+	 *         no limit)
+	 */
+	public int getCacheMaxEntries() {
+		return cacheMaxEntries;
+	}
+
+	/**
+	 * @return files evicted first if the cache exceeds its limits (lru or lfu)
+	 */
+	public String getCacheEvictionPolicy() {
+		return cacheEvictionPolicy;
+	}
+
+	/**
+	 * @return days a query file is kept after it has been fetched
+	 */
+	public int getCacheQueryTtlDays() {
+		return cacheQueryTtlDays;
+	}
+
+	/**
+	 * @return days a seriesdata file is kept after it has been fetched
+	 */
+	public int getCacheSeriesDataTtlDays() {
+		return cacheSeriesDataTtlDays;
+	}
+
+	/**
+	 * @return true, if resolved EPG lines are remembered across runs
+	 */
+	public boolean isResolutionCache() {
+		return resolutionCache;
+	}
+
+	/**
+	 * @return true, if only EPG lines added since the last run and lines of
+	 *         series that should be retried are scanned
+	 */
+	public boolean isIncrementalScan() {
+		return incrementalScan;
+	}
+
+	/**
+	 * @return Days an EPG line that could not be resolved is not scanned again
+	 *         in incremental mode
+	 */
+	public int getFailedLinesTtlDays() {
+		return failedLinesTtlDays;
+	}
+
+	/**
+	 * @return Days a series title thetvdb.com has no series for is not
+	 *         searched again or 0, if the negative cache is disabled
+	 */
+	public int getNegativeCacheTtlDays() {
+		return negativeCacheTtlDays;
+	}
+
+	/**
+	 * @return minimal similarity (0 to 1) of episode names matched fuzzily
+	 *         using thetvdb.com or 0, if the fuzzy matching is disabled
+	 */
+	public double getFuzzyMatchThreshold() {
+		return fuzzyMatchThreshold;
+	}
+
 	/**
 	 * @param seriesTitle
 	 *            title of the series
 	 * @return true, if title is in the list of offline only series
 	 */
 	public boolean isOfflineOnlySeries(String seriesTitle) {
-		seriesTitle = ansiToUTF8(seriesTitle);
-		if (seriesTitle != null && this.seriesTitlesOfflineOnly != null && this.seriesTitlesOfflineOnly.length > 0) {
-			for (String offlineSeries : seriesTitlesOfflineOnly) {
-				if (seriesTitle.equalsIgnoreCase(offlineSeries)) {
-					logger.warn("Found offline-only-series: " + seriesTitle + " equals " + offlineSeries);
-					return true;
-				}
-			}
+		if (seriesTitle == null || seriesTitlesOfflineOnly.isEmpty()) {
+			return false;
+		}
+		String offlineSeries = seriesTitlesOfflineOnly.get(normalizeTitle(seriesTitle));
+		if (offlineSeries != null) {
+			logger.warn("Found offline-only-series: " + seriesTitle + " equals " + offlineSeries);
+			return true;
 		}
 		return false;
 	}
 
+	/**
+	 * Converts the encoding of an EPG title and folds its case. The result is
+	 * remembered per title, because every title occurs in many EPG lines
+	 * 
+	 * @param seriesTitle
+	 *            title as read from the EPG
+	 * @return title to be looked up in the series lists
+	 */
+	private String normalizeTitle(String seriesTitle) {
+		String normalized = normalizedTitles.get(seriesTitle);
+		if (normalized == null) {
+			normalized = CaseFolding.fold(ansiToUTF8(seriesTitle));
+			normalizedTitles.put(seriesTitle, normalized);
+		}
+		return normalized;
+	}
+
 	/**
 	 * Converts a given Ansi String to UTF-8
 	 * 
@@ -214,14 +654,13 @@ public class Config extends Properties implements SettingsFields {
 	 * @return true, if title is in the list of online only series
 	 */
 	public boolean isOnlineOnlySeries(String seriesTitle) {
-		seriesTitle = ansiToUTF8(seriesTitle);
-		if (seriesTitle != null && this.seriesTitlesOnlineOnly != null && this.seriesTitlesOnlineOnly.length > 0) {
-			for (String onlineeries : seriesTitlesOnlineOnly) {
-				if (seriesTitle.equalsIgnoreCase(onlineeries)) {
-					logger.warn("Found online-only-series: " + seriesTitle + " equals " + onlineeries);
-					return true;
-				}
-			}
+		if (seriesTitle == null || seriesTitlesOnlineOnly.isEmpty()) {
+			return false;
+		}
+		String onlineSeries = seriesTitlesOnlineOnly.get(normalizeTitle(seriesTitle));
+		if (onlineSeries != null) {
+			logger.warn("Found online-only-series: " + seriesTitle + " equals " + onlineSeries);
+			return true;
 		}
 		return false;
 	}
@@ -72,7 +72,9 @@ public interface SettingsFields {
 	/**
 	 * field for the description pattern in the EPG that can be used to resolve
 	 * series and episode number if there could not be found anything for the
-	 * series on thetvdb.com
+	 * series on thetvdb.com. Additional rules are numbered
+	 * <code>epgdescriptionpattern.1</code>, <code>epgdescriptionpattern.2</code>
+	 * and so on
 	 */
 	public static final String FIELD_EPG_DESCRIPTION_PATTERN = "epgdescriptionpattern";
 
@@ -113,4 +115,134 @@ public interface SettingsFields {
 	 * oldest one
 	 */
 	public static final String FIELD_BACKUP_COUNT = "backupcount";
+
+	/**
+	 * field for the way the backup is taken before the EPG is updated (jdbc,
+	 * mysqldump or none)
+	 */
+	public static final String FIELD_BACKUP_MODE = "backupmode";
+
+	/**
+	 * field for the amount of EPG updates sent to the database in one batch
+	 */
+	public static final String FIELD_DB_BATCH_SIZE = "dbbatchsize";
+
+	/**
+	 * field for the amount of EPG updates committed in one transaction
+	 */
+	public static final String FIELD_DB_COMMIT_SIZE = "dbcommitsize";
+
+	/**
+	 * field for the amount of EPG lines fetched from the database at once (0
+	 * reads the complete result into memory, -1 streams row by row)
+	 */
+	public static final String FIELD_DB_FETCH_SIZE = "dbfetchsize";
+
+	/**
+	 * field for the maximal amount of pooled connections to the database
+	 */
+	public static final String FIELD_DB_POOL_SIZE = "dbpoolsize";
+
+	/**
+	 * field for the amount of retries of EPG updates failed due to a transient
+	 * database error
+	 */
+	public static final String FIELD_DB_RETRIES = "dbretries";
+
+	/**
+	 * field for the way EPG updates are written to the database (batch or
+	 * bulk)
+	 */
+	public static final String FIELD_DB_UPDATE_MODE = "dbupdatemode";
+
+	/**
+	 * field for the amount of series resolved in parallel using thetvdb.com
+	 */
+	public static final String FIELD_THETVDB_PARALLELISM = "thetvdb.parallelism";
+
+	/**
+	 * field for the parser used to read series data xml files (stax or
+	 * xstream)
+	 */
+	public static final String FIELD_SERIESDATA_PARSER = "seriesdataparser";
+
+	/**
+	 * field for the format of cached series data (xml or binary)
+	 */
+	public static final String FIELD_CACHE_FORMAT = "cacheformat";
+
+	/**
+	 * field for the compression of the binary series data cache (none, gzip or
+	 * deflate)
+	 */
+	public static final String FIELD_CACHE_COMPRESSION = "cachecompression";
+
+	/**
+	 * field for the maximal amount of episodes of series kept in memory during
+	 * a run (0 disables the in-memory cache)
+	 */
+	public static final String FIELD_SERIES_CACHE_MAX_EPISODES = "seriescachemaxepisodes";
+
+	/**
+	 * field for the maximal amount of changed episodes of a cached series
+	 * fetched one by one instead of the whole series (0 always fetches the
+	 * whole series)
+	 */
+	public static final String FIELD_DELTA_REFRESH_MAX_EPISODES = "deltarefreshmaxepisodes";
+
+	/**
+	 * field for the maximal size of the query and seriesdata files in the
+	 * cache in bytes (0 for no limit)
+	 */
+	public static final String FIELD_CACHE_MAX_BYTES = "cachemaxbytes";
+
+	/**
+	 * field for the maximal amount of query and seriesdata files in the cache
+	 * (0 for no limit)
+	 */
+	public static final String FIELD_CACHE_MAX_ENTRIES = "cachemaxentries";
+
+	/**
+	 * field for the files evicted first if the cache exceeds its limits (lru
+	 * or lfu)
+	 */
+	public static final String FIELD_CACHE_EVICTION_POLICY = "cacheevictionpolicy";
+
+	/**
+	 * field for the days a query file is kept after it has been fetched
+	 */
+	public static final String FIELD_CACHE_QUERY_TTL_DAYS = "cachequeryttldays";
+
+	/**
+	 * field for the days a seriesdata file is kept after it has been fetched
+	 */
+	public static final String FIELD_CACHE_SERIESDATA_TTL_DAYS = "cacheseriesdatattldays";
+
+	/**
+	 * field for the flag to remember resolved EPG lines across runs
+	 */
+	public static final String FIELD_RESOLUTION_CACHE = "resolutioncache";
+
+	/**
+	 * field for the flag to only scan EPG lines added since the last run
+	 */
+	public static final String FIELD_INCREMENTAL_SCAN = "incrementalscan";
+
+	/**
+	 * field for the days an EPG line that could not be resolved is not scanned
+	 * again in incremental mode
+	 */
+	public static final String FIELD_FAILED_LINES_TTL_DAYS = "failedlinesttldays";
+
+	/**
+	 * field for the days a series title thetvdb.com has no series for is not
+	 * searched again
+	 */
+	public static final String FIELD_NEGATIVE_CACHE_TTL_DAYS = "negativecachettldays";
+
+	/**
+	 * field for the minimal similarity (0 to 1) of episode names matched
+	 * fuzzily using thetvdb.com. 0 disables the fuzzy matching
+	 */
+	public static final String FIELD_FUZZY_MATCH_THRESHOLD = "fuzzymatchthreshold";
 }
@@ -0,0 +1,291 @@
+package de.mediaportal.episodenumbergenerator.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Substitutes series or episode names of the EPG by the names to be used for
+ * the search on thetvdb.com. The rules are pairs of name and substitution
+ * separated by <code>;</code>. A name is either
+ * <ul>
+ * <li>the exact name in the EPG,</li>
+ * <li><code>prefix:&lt;text&gt;</code> for every name starting with the text
+ * or</li>
+ * <li><code>regex:&lt;pattern&gt;</code> for every name matching the regular
+ * expression completely. The substitution may refer to the groups of the
+ * pattern using <code>$1</code>, <code>$2</code> and so on.</li>
+ * </ul>
+ * Exact names are looked up in a hash map. Prefix and regex rules are compiled
+ * once into a single alternation, the first matching rule wins. Regex rules
+ * with back references like <code>\1</code> are matched one by one instead,
+ * because the groups wrapping the rules in the alternation would shift the
+ * groups the references point to. Malformed rules are reported and ignored.
+ *
+ * @author Oliver
+ *
+ */
+public class SubstitutionEngine {
+	/**
+	 * Name prefix of prefix rules
+	 */
+	public static final String PREFIX_RULE = "prefix:";
+
+	/**
+	 * Name prefix of regex rules
+	 */
+	public static final String REGEX_RULE = "regex:";
+
+	/**
+	 * Prefix of the group wrapping each pattern rule in the combined pattern
+	 */
+	private static final String GROUP_RULE = "rule";
+
+	/**
+	 * Logger of the class {@link SubstitutionEngine}
+	 */
+	private static Logger logger = LogManager.getLogger(SubstitutionEngine.class);
+
+	/**
+	 * Substitutions of exact names
+	 */
+	private Map<String, String> exactRules = null;
+
+	/**
+	 * Compiled prefix and regex rules in the order they have been defined
+	 */
+	private List<Pattern> patternRules = new ArrayList<>();
+
+	/**
+	 * Substitutions of the pattern rules
+	 */
+	private List<String> patternSubstitutions = new ArrayList<>();
+
+	/**
+	 * true, if the substitution of the pattern rule with the same index
+	 * refers to groups of its pattern
+	 */
+	private List<Boolean> patternReplacements = new ArrayList<>();
+
+	/**
+	 * true, if the pattern rule with the same index is part of the
+	 * {@link #combinedPattern}
+	 */
+	private List<Boolean> patternCombined = new ArrayList<>();
+
+	/**
+	 * Alternation of all pattern rules without back references or null, if
+	 * there are none or they cannot be combined
+	 */
+	private Pattern combinedPattern = null;
+
+	/**
+	 * Descriptions of the malformed rules
+	 */
+	private List<String> errors = new ArrayList<>();
+
+	/**
+	 * Parses the rules
+	 *
+	 * @param name
+	 *            name of the rule set used in error messages
+	 * @param rules
+	 *            pairs of name and substitution separated by <code>;</code> or
+	 *            null
+	 */
+	public SubstitutionEngine(String name, String rules) {
+		Map<String, String> exact = new HashMap<>();
+		StringBuilder combined = new StringBuilder();
+		if (rules != null && !rules.isEmpty()) {
+			String[] ruleStrings = rules.split(";");
+			if (ruleStrings.length % 2 != 0) {
+				error(name, "The last name '" + ruleStrings[ruleStrings.length - 1] + "' has no substitution and is ignored");
+			}
+			for (int i = 0; i + 1 < ruleStrings.length; i += 2) {
+				String epgName = ruleStrings[i];
+				String substitution = ruleStrings[i + 1];
+				if (epgName.isEmpty() || substitution.isEmpty()) {
+					error(name, "Rule " + (i / 2 + 1) + " ('" + epgName + "';'" + substitution
+							+ "') has an empty name or substitution and is ignored");
+				} else if (epgName.startsWith(PREFIX_RULE)) {
+					String prefix = epgName.substring(PREFIX_RULE.length());
+					addPatternRule(combined, Pattern.compile(Pattern.quote(prefix) + ".*", Pattern.DOTALL), substitution, false);
+				} else if (epgName.startsWith(REGEX_RULE)) {
+					try {
+						Pattern pattern = Pattern.compile(epgName.substring(REGEX_RULE.length()));
+						Matcher groupCheck = pattern.matcher("");
+						if (hasGroupReference(substitution, groupCheck.groupCount())) {
+							addPatternRule(combined, pattern, substitution, true);
+						} else {
+							error(name, "Rule " + (i / 2 + 1) + " ('" + epgName
+									+ "') refers to a group its pattern does not define and is ignored");
+						}
+					} catch (PatternSyntaxException e) {
+						error(name, "Rule " + (i / 2 + 1) + " ('" + epgName + "') is no valid regular expression and is ignored ("
+								+ e.getDescription() + ")");
+					}
+				} else {
+					exact.put(epgName, substitution);
+				}
+			}
+		}
+		this.exactRules = Collections.unmodifiableMap(exact);
+		if (combined.length() > 0) {
+			try {
+				this.combinedPattern = Pattern.compile(combined.toString(), Pattern.DOTALL);
+			} catch (PatternSyntaxException e) {
+				// e.g. the same named group in several rules
+				logger.warn(name + ": The pattern rules cannot be combined and are matched one after another (" + e.getDescription()
+						+ ")");
+			}
+		}
+	}
+
+	/**
+	 * Adds a compiled pattern rule. Rules with back references are not added to
+	 * the alternation
+	 *
+	 * @param combined
+	 *            alternation of the previous pattern rules
+	 * @param pattern
+	 *            compiled pattern of the rule
+	 * @param substitution
+	 *            substitution of the rule
+	 * @param replacement
+	 *            true, if the substitution may refer to groups
+	 */
+	private void addPatternRule(StringBuilder combined, Pattern pattern, String substitution, boolean replacement) {
+		int rule = patternRules.size();
+		boolean combinable = !replacement || !hasBackReference(pattern.pattern());
+		if (combinable) {
+			if (combined.length() > 0) {
+				combined.append('|');
+			}
+			// inline flags of a rule only apply within its group
+			combined.append("(?<").append(GROUP_RULE).append(rule).append(">(?:").append(pattern.pattern()).append("))");
+		}
+		patternRules.add(pattern);
+		patternSubstitutions.add(substitution);
+		patternReplacements.add(replacement);
+		patternCombined.add(combinable);
+	}
+
+	/**
+	 * @param regex
+	 *            pattern of a regex rule
+	 * @return true, if the pattern contains a numbered (<code>\1</code>) or
+	 *         named (<code>\k&lt;name&gt;</code>) back reference
+	 */
+	private static boolean hasBackReference(String regex) {
+		for (int i = 0; i + 1 < regex.length(); i++) {
+			if (regex.charAt(i) == '\\') {
+				char escaped = regex.charAt(++i);
+				if ((escaped >= '1' && escaped <= '9') || escaped == 'k') {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param substitution
+	 *            substitution of a regex rule
+	 * @param groupCount
+	 *            amount of groups of the pattern
+	 * @return true, if all group references of the substitution are defined
+	 */
+	private static boolean hasGroupReference(String substitution, int groupCount) {
+		for (int i = 0; i < substitution.length() - 1; i++) {
+			char c = substitution.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (c == '$') {
+				char next = substitution.charAt(i + 1);
+				if (!Character.isDigit(next) || next - '0' > groupCount) {
+					return false;
+				}
+			}
+		}
+		return !substitution.endsWith("$") || substitution.endsWith("\\$");
+	}
+
+	/**
+	 * Logs a malformed rule
+	 *
+	 * @param name
+	 *            name of the rule set
+	 * @param message
+	 *            description of the problem
+	 */
+	private void error(String name, String message) {
+		String error = name + ": " + message;
+		errors.add(error);
+		logger.error(error);
+	}
+
+	/**
+	 * @param epgName
+	 *            name in the EPG
+	 * @return substitution of the name or null, if no rule matches
+	 */
+	public String get(String epgName) {
+		if (epgName == null) {
+			return null;
+		}
+		String substitution = exactRules.get(epgName);
+		if (substitution != null) {
+			return substitution;
+		}
+		// rules of the combined pattern before the first matching one do not
+		// match
+		int firstRule = 0;
+		if (combinedPattern != null) {
+			Matcher matcher = combinedPattern.matcher(epgName);
+			boolean matches = matcher.matches();
+			firstRule = patternRules.size();
+			for (int rule = 0; matches && rule < patternRules.size(); rule++) {
+				if (patternCombined.get(rule) && matcher.start(GROUP_RULE + rule) >= 0) {
+					firstRule = rule;
+					break;
+				}
+			}
+		}
+		// the group numbers of a rule are shifted in the combined pattern, so
+		// the rule is matched again using its own pattern. Rules with back
+		// references are matched one by one
+		for (int rule = 0; rule < patternRules.size(); rule++) {
+			if (rule < firstRule && combinedPattern != null && patternCombined.get(rule)) {
+				continue;
+			}
+			Matcher ruleMatcher = patternRules.get(rule).matcher(epgName);
+			if (ruleMatcher.matches()) {
+				String ruleSubstitution = patternSubstitutions.get(rule);
+				return patternReplacements.get(rule) ? ruleMatcher.replaceFirst(ruleSubstitution) : ruleSubstitution;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return amount of valid rules
+	 */
+	public int size() {
+		return exactRules.size() + patternRules.size();
+	}
+
+	/**
+	 * @return descriptions of the malformed rules
+	 */
+	public List<String> getErrors() {
+		return Collections.unmodifiableList(errors);
+	}
+}
@@ -4,7 +4,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Hashtable;
 import java.util.Properties;
 
 import org.apache.logging.log4j.LogManager;
@@ -50,57 +49,19 @@ public class Substitutions extends Properties implements SettingsFields {
 	}
 
 	/**
-	 * @return Table of series names in the epg with their substitution name to
-	 *         be used for search on thetvdb.com
+	 * @return Substitutions of series names in the epg by the names to be used
+	 *         for search on thetvdb.com
 	 */
-	public Hashtable<String, String> getSeriesNameSubstitutions() {
-		Hashtable<String, String> seriesNameSubstitutions = null;
-		String substitutions = this.getProperty(FIELD_SUBSTITUTIONS_SERIES);
-		if (substitutions != null && !substitutions.equalsIgnoreCase("")) {
-			String[] substitutionStrings = substitutions.split(";");
-			int substitutionsLength = -1;
-			if (substitutionStrings != null && (substitutionsLength = substitutionStrings.length) > 0) {
-				if (substitutionsLength % 2 == 0) {
-					seriesNameSubstitutions = new Hashtable<>();
-					for (int i = 0; i < substitutionsLength; i += 2) {
-						String epgSeriesName = substitutionStrings[i];
-						String substitutionName = substitutionStrings[i + 1];
-						seriesNameSubstitutions.put(epgSeriesName, substitutionName);
-					}
-				} else {
-					logger.error("Your series name substitutions do not consist of pairs of name and substitution pattern. Please check.");
-					System.exit(0);
-				}
-			}
-		}
-		return seriesNameSubstitutions;
+	public SubstitutionEngine getSeriesNameSubstitutions() {
+		return new SubstitutionEngine("Series name substitutions", this.getProperty(FIELD_SUBSTITUTIONS_SERIES));
 	}
 
 	/**
-	 * @return Table of episode names in the epg with their substitution name to
-	 *         be used for search on thetvdb.com
+	 * @return Substitutions of episode names in the epg by the names to be used
+	 *         for search on thetvdb.com
 	 */
-	public Hashtable<String, String> getEpisodeNameSubstitutions() {
-		Hashtable<String, String> seriesNameSubstitutions = null;
-		String substitutions = this.getProperty(FIELD_SUBSTITUTIONS_EPISODES);
-		if (substitutions != null && !substitutions.equalsIgnoreCase("")) {
-			String[] substitutionStrings = substitutions.split(";");
-			int substitutionsLength = -1;
-			if (substitutionStrings != null && (substitutionsLength = substitutionStrings.length) > 0) {
-				if (substitutionsLength % 2 == 0) {
-					seriesNameSubstitutions = new Hashtable<>();
-					for (int i = 0; i < substitutionsLength; i += 2) {
-						String epgEpisodeName = substitutionStrings[i];
-						String substitutionName = substitutionStrings[i + 1];
-						seriesNameSubstitutions.put(epgEpisodeName, substitutionName);
-					}
-				} else {
-					logger.error("Your episode name substitutions do not consist of pairs of name and substitution pattern. Please check.");
-					System.exit(0);
-				}
-			}
-		}
-		return seriesNameSubstitutions;
+	public SubstitutionEngine getEpisodeNameSubstitutions() {
+		return new SubstitutionEngine("Episode name substitutions", this.getProperty(FIELD_SUBSTITUTIONS_EPISODES));
 	}
 
 	/**
@@ -114,7 +75,8 @@ public class Substitutions extends Properties implements SettingsFields {
 		Substitutions s;
 		try {
 			s = new Substitutions();
-			s.getSeriesNameSubstitutions();
+			System.out.println("Series name substitutions: " + s.getSeriesNameSubstitutions().size());
+			System.out.println("Episode name substitutions: " + s.getEpisodeNameSubstitutions().size());
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -29,7 +29,8 @@ public class CacheFile extends File {
 	@Override
 	public int compareTo(File pathname) {
 		if (pathname != null) {
-			return (int) (this.lastModified() - pathname.lastModified());
+			// the difference of two timestamps does not fit into an int
+			return Long.compare(this.lastModified(), pathname.lastModified());
 		} else {
 			return 1;
 		}
@@ -3,6 +3,8 @@
  */
 package de.mediaportal.episodenumbergenerator.model.series;
 
+import java.util.HashSet;
+import java.util.Set;
 import java.util.Vector;
 
 import com.thoughtworks.xstream.annotations.XStreamAlias;
@@ -19,12 +21,58 @@ public class Updates {
 	@XStreamImplicit(itemFieldName = "Series")
 	protected Vector<String> seriesId = null;
 
+	/**
+	 * IDs of the updated episodes
+	 */
+	@XStreamImplicit(itemFieldName = "Episode")
+	protected Vector<String> episodeId = null;
+
+	/**
+	 * Hash set of {@link #seriesId} created on the first lookup
+	 */
+	private transient Set<String> seriesIdSet = null;
+
+	/**
+	 * Hash set of {@link #episodeId} created on the first lookup
+	 */
+	private transient Set<String> episodeIdSet = null;
+
 	/**
 	 * @param o
-	 * @return
+	 * @return true, if the series with the ID has been updated
 	 * @see java.util.Vector#contains(java.lang.Object)
 	 */
 	public boolean contains(Object o) {
-		return seriesId!=null && seriesId.contains(o);
+		return seriesId != null && getSeriesIdSet().contains(o);
+	}
+
+	/**
+	 * @param id
+	 *            thetvdb episode ID
+	 * @return true, if the episode with the ID has been updated
+	 */
+	public boolean containsEpisode(String id) {
+		return episodeId != null && getEpisodeIdSet().contains(id);
+	}
+
+	/**
+	 * @return IDs of the updated episodes in a hash set for constant time
+	 *         lookups
+	 */
+	private synchronized Set<String> getEpisodeIdSet() {
+		if (episodeIdSet == null) {
+			episodeIdSet = new HashSet<>(episodeId);
+		}
+		return episodeIdSet;
+	}
+
+	/**
+	 * @return IDs of the updated series in a hash set for constant time lookups
+	 */
+	private synchronized Set<String> getSeriesIdSet() {
+		if (seriesIdSet == null) {
+			seriesIdSet = new HashSet<>(seriesId);
+		}
+		return seriesIdSet;
 	}
 }
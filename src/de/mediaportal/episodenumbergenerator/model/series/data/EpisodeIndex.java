@@ -0,0 +1,138 @@
+package de.mediaportal.episodenumbergenerator.model.series.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import de.mediaportal.episodenumbergenerator.model.CaseFolding;
+
+/**
+ * Lookup index of the episodes of one series. The index maps the normalized
+ * episode name to the {@link EpisodeInformation} holding season and episode
+ * number, so every EPG line of a series can be resolved with a single hash
+ * probe instead of scanning the complete episode list
+ *
+ * @author Oliver
+ *
+ */
+public class EpisodeIndex {
+	/**
+	 * All episodes in the order they have been added
+	 */
+	protected ArrayList<EpisodeInformation> episodes = null;
+
+	/**
+	 * Episodes by their normalized name
+	 */
+	protected HashMap<String, EpisodeInformation> episodesByName = null;
+
+	/**
+	 * Trigram index of the episode names, created on the first fuzzy lookup
+	 */
+	protected FuzzyEpisodeIndex fuzzyIndex = null;
+
+	/**
+	 * Creates an empty index
+	 */
+	public EpisodeIndex() {
+		this.episodes = new ArrayList<>();
+		this.episodesByName = new HashMap<>();
+	}
+
+	/**
+	 * Creates an index containing all episodes of the given series data
+	 *
+	 * @param seriesData
+	 *            parsed series data of thetvdb.com
+	 */
+	public EpisodeIndex(SeriesData seriesData) {
+		this();
+		if (seriesData != null && seriesData.getEpisodeList() != null) {
+			for (EpisodeInformation episodeInfo : seriesData.getEpisodeList()) {
+				add(episodeInfo);
+			}
+		}
+	}
+
+	/**
+	 * Adds an episode to the index. If there is more than one episode with the
+	 * same name, the first one added is kept
+	 *
+	 * @param episodeInfo
+	 *            episode to be added
+	 */
+	public void add(EpisodeInformation episodeInfo) {
+		if (episodeInfo != null) {
+			episodes.add(episodeInfo);
+			fuzzyIndex = null;
+		}
+		if (episodeInfo != null && episodeInfo.getEpisodeName() != null) {
+			String key = normalize(episodeInfo.getEpisodeName());
+			if (!episodesByName.containsKey(key)) {
+				episodesByName.put(key, episodeInfo);
+			}
+		}
+	}
+
+	/**
+	 * @param episodeName
+	 *            name of the episode as found in the EPG
+	 * @return the matching episode or null, if there is no episode with that
+	 *         name
+	 */
+	public EpisodeInformation get(String episodeName) {
+		if (episodeName == null) {
+			return null;
+		}
+		return episodesByName.get(normalize(episodeName));
+	}
+
+	/**
+	 * Finds the episode with the most similar name using a
+	 * {@link FuzzyEpisodeIndex}
+	 *
+	 * @param episodeName
+	 *            name of the episode as found in the EPG
+	 * @param threshold
+	 *            minimal similarity between 0 and 1
+	 * @return the most similar episode or null, if no episode reaches the
+	 *         threshold
+	 */
+	public synchronized EpisodeInformation getSimilar(String episodeName, double threshold) {
+		if (episodeName == null) {
+			return null;
+		}
+		if (fuzzyIndex == null) {
+			fuzzyIndex = new FuzzyEpisodeIndex(episodes);
+		}
+		return fuzzyIndex.find(episodeName, threshold);
+	}
+
+	/**
+	 * @return amount of indexed episodes
+	 */
+	public int size() {
+		return episodesByName.size();
+	}
+
+	/**
+	 * @return all episodes in the order they have been added, including
+	 *         episodes without name
+	 */
+	public List<EpisodeInformation> getEpisodes() {
+		return Collections.unmodifiableList(episodes);
+	}
+
+	/**
+	 * Normalizes an episode name to be used as key of the index using
+	 * {@link CaseFolding}
+	 *
+	 * @param episodeName
+	 *            name of the episode
+	 * @return normalized name
+	 */
+	public static String normalize(String episodeName) {
+		return CaseFolding.fold(episodeName);
+	}
+}
@@ -42,6 +42,31 @@ public class EpisodeInformation {
 	@XStreamAlias("EpisodeName")
 	protected String episodeName = null;
 
+	/**
+	 * Creates an empty instance to be filled by {@link XStream}
+	 */
+	public EpisodeInformation() {
+	}
+
+	/**
+	 * Creates an instance with the fields needed to resolve episode numbers
+	 * 
+	 * @param id
+	 *            Unique ID of the episode
+	 * @param seasonNumber
+	 *            Season number
+	 * @param episodeNumber
+	 *            Episode number
+	 * @param episodeName
+	 *            Name of the episode
+	 */
+	public EpisodeInformation(String id, String seasonNumber, String episodeNumber, String episodeName) {
+		this.id = id;
+		this.seasonNumber = seasonNumber;
+		this.episodeNumber = episodeNumber;
+		this.episodeName = episodeName;
+	}
+
 	/**
 	 * @return the id
 	 */
@@ -0,0 +1,209 @@
+package de.mediaportal.episodenumbergenerator.model.series.data;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Trigram index of the episode names of one series to find episodes whose name
+ * is similar to the name in the EPG. Names are normalized first (umlauts are
+ * transliterated, accents, punctuation and leading articles are removed and
+ * part numbers like "(1)" or "Teil 1" are replaced by a common token). The
+ * similarity of two names is the Dice coefficient of their trigram sets. Only
+ * episodes sharing at least one trigram with the searched name are compared,
+ * so a lookup does not scan all episodes of the series.
+ *
+ * @author Oliver
+ *
+ */
+public class FuzzyEpisodeIndex {
+	/**
+	 * Part numbers in parentheses like "(1)", "(Teil 2)" or "(1/2)". Without
+	 * keyword only numbers with one or two digits are parts, so years like
+	 * "(2019)" stay part of the name
+	 */
+	private static final Pattern PART_IN_PARENTHESES = Pattern
+			.compile("\\(\\s*(?:(?:teil|part|pt\\.?)\\s*(\\d+)|(\\d{1,2}))(?:\\s*/\\s*\\d+)?\\s*\\)");
+
+	/**
+	 * Part numbers like "Teil 1" or "Part 2"
+	 */
+	private static final Pattern PART_WORD = Pattern.compile("\\b(?:teil|part)\\s+(\\d+)\\b");
+
+	/**
+	 * Normalized part token created from the part numbers
+	 */
+	private static final Pattern PART_TOKEN = Pattern.compile("\\bpart(\\d+)\\b");
+
+	/**
+	 * Combining marks left by the decomposition of accented characters
+	 */
+	private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+	/**
+	 * Characters other than letters and digits
+	 */
+	private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	/**
+	 * Leading articles removed from names with more than one word
+	 */
+	private static final Pattern LEADING_ARTICLE = Pattern.compile("^(?:der|die|das|ein|eine|the|a|an|le|la|les|el|il) (?=\\S)");
+
+	/**
+	 * Indexed episodes
+	 */
+	private List<EpisodeInformation> episodes = new ArrayList<>();
+
+	/**
+	 * Part number of each indexed episode or null, if the name has no part
+	 * number
+	 */
+	private List<String> parts = new ArrayList<>();
+
+	/**
+	 * Amount of distinct trigrams of each indexed episode
+	 */
+	private List<Integer> trigramCounts = new ArrayList<>();
+
+	/**
+	 * Positions of the episodes containing a trigram
+	 */
+	private HashMap<String, List<Integer>> postings = new HashMap<>();
+
+	/**
+	 * Creates the index of all named episodes
+	 *
+	 * @param episodes
+	 *            episodes of one series
+	 */
+	public FuzzyEpisodeIndex(List<EpisodeInformation> episodes) {
+		for (EpisodeInformation episodeInfo : episodes) {
+			if (episodeInfo.getEpisodeName() == null) {
+				continue;
+			}
+			String normalized = normalize(episodeInfo.getEpisodeName());
+			Set<String> trigrams = trigrams(normalized);
+			if (trigrams.isEmpty()) {
+				continue;
+			}
+			int position = this.episodes.size();
+			this.episodes.add(episodeInfo);
+			this.parts.add(getPart(normalized));
+			this.trigramCounts.add(trigrams.size());
+			for (String trigram : trigrams) {
+				List<Integer> posting = postings.get(trigram);
+				if (posting == null) {
+					posting = new ArrayList<>();
+					postings.put(trigram, posting);
+				}
+				posting.add(position);
+			}
+		}
+	}
+
+	/**
+	 * Finds the episode with the most similar name. If both names have a part
+	 * number, episodes with a different part number never match
+	 *
+	 * @param episodeName
+	 *            name of the episode as found in the EPG
+	 * @param threshold
+	 *            minimal similarity between 0 and 1
+	 * @return the most similar episode or null, if no episode reaches the
+	 *         threshold
+	 */
+	public EpisodeInformation find(String episodeName, double threshold) {
+		if (episodeName == null) {
+			return null;
+		}
+		String normalized = normalize(episodeName);
+		Set<String> trigrams = trigrams(normalized);
+		if (trigrams.isEmpty()) {
+			return null;
+		}
+		String part = getPart(normalized);
+
+		// count the shared trigrams of all candidates
+		HashMap<Integer, Integer> sharedTrigrams = new HashMap<>();
+		for (String trigram : trigrams) {
+			List<Integer> posting = postings.get(trigram);
+			if (posting != null) {
+				for (Integer position : posting) {
+					Integer shared = sharedTrigrams.get(position);
+					sharedTrigrams.put(position, shared == null ? 1 : shared + 1);
+				}
+			}
+		}
+
+		int bestPosition = -1;
+		double bestSimilarity = threshold;
+		for (Map.Entry<Integer, Integer> candidate : sharedTrigrams.entrySet()) {
+			int position = candidate.getKey();
+			String candidatePart = parts.get(position);
+			if (part != null && candidatePart != null && !part.equals(candidatePart)) {
+				continue;
+			}
+			double similarity = 2.0 * candidate.getValue() / (trigrams.size() + trigramCounts.get(position));
+			// on equal similarity the first episode of the series wins
+			if (similarity > bestSimilarity || (similarity == bestSimilarity && (bestPosition < 0 || position < bestPosition))) {
+				bestPosition = position;
+				bestSimilarity = similarity;
+			}
+		}
+		return bestPosition < 0 ? null : episodes.get(bestPosition);
+	}
+
+	/**
+	 * Normalizes an episode name for the fuzzy comparison
+	 *
+	 * @param episodeName
+	 *            name of the episode
+	 * @return lower case name consisting of words separated by single spaces
+	 */
+	public static String normalize(String episodeName) {
+		String normalized = episodeName.toLowerCase(Locale.ROOT);
+		normalized = normalized.replace("\u00e4", "ae").replace("\u00f6", "oe").replace("\u00fc", "ue").replace("\u00df", "ss");
+		normalized = COMBINING_MARKS.matcher(Normalizer.normalize(normalized, Normalizer.Form.NFD)).replaceAll("");
+		normalized = PART_IN_PARENTHESES.matcher(normalized).replaceAll(" part$1$2 ");
+		normalized = PART_WORD.matcher(normalized).replaceAll(" part$1 ");
+		normalized = NON_ALPHANUMERIC.matcher(normalized).replaceAll(" ").trim();
+		return LEADING_ARTICLE.matcher(normalized).replaceFirst("");
+	}
+
+	/**
+	 * @param normalized
+	 *            normalized episode name
+	 * @return part number without leading zeros or null, if the name has no
+	 *         part number
+	 */
+	private static String getPart(String normalized) {
+		Matcher matcher = PART_TOKEN.matcher(normalized);
+		// kept as digits, a part number may exceed the range of an int
+		return matcher.find() ? matcher.group(1).replaceFirst("^0+(?=\\d)", "") : null;
+	}
+
+	/**
+	 * @param normalized
+	 *            normalized episode name
+	 * @return distinct trigrams of the name padded with spaces
+	 */
+	private static Set<String> trigrams(String normalized) {
+		Set<String> trigrams = new LinkedHashSet<>();
+		if (normalized.isEmpty()) {
+			return trigrams;
+		}
+		String padded = "  " + normalized + " ";
+		for (int i = 0; i + 3 <= padded.length(); i++) {
+			trigrams.add(padded.substring(i, i + 3));
+		}
+		return trigrams;
+	}
+}